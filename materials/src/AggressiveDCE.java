@@ -0,0 +1,247 @@
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.operand.IRLabelOperand;
+import ir.operand.IROperand;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class AggressiveDCE {
+    //Aggressive dead code elimination (Cytron et al.) on top of SSAForm
+    //Unlike markAlg, branches are NOT critical by themselves: a branch is only marked when something marked is control
+        //dependent on it (post-dominance frontier of the marked instruc's block, or of the predecessors of a marked phi)
+    //Sweep works on the original instrucs: unmarked defs are dropped, unmarked branches become a goto to the nearest
+        //post-dominator that still has marked code (or are dropped if that block is the fall-through)
+    //Gotos and labels are always kept, blocks that cannot reach the exit keep their branches so infinite loops stay infinite
+    //Calls are critical unless the CallGraph summary of the callee says they can go (then a CALLR only stays if used)
+
+    private CallGraph calls;
+    private SSAForm ssa;
+    private IRcfg cfg;
+    private DominatorTree pdom;
+    private Set<Object> marked = Collections.newSetFromMap(new IdentityHashMap<>()); // renamed instrucs and phis
+    private Map<IRInstruction, IRBlock> block_of = new IdentityHashMap<>(); // renamed instruc -> its block
+    private boolean[] live_block; // has at least one marked instruc/phi
+    private Deque<Object> worklist = new ArrayDeque<>();
+
+    // returns how many (non-label) instrucs were removed from the function
+    public static int run(IRFunction function) {
+        return run(function, null);
+    }
+
+    public static int run(IRFunction function, CallGraph calls) {
+        if (function.instructions.isEmpty()) {
+            return 0;
+        }
+        AggressiveDCE pass = new AggressiveDCE();
+        pass.calls = calls;
+        return pass.sweep(function);
+    }
+
+    private void mark(Object item, IRBlock block) {
+        if (this.marked.add(item)) {
+            this.worklist.add(item);
+            this.live_block[block.index] = true;
+        }
+    }
+
+    private void markValue(SSAForm.Value value) {
+        if (value == null) {
+            return;
+        }
+        if (value.def != null) {
+            mark(value.def, value.block);
+        } else if (value.phi != null) {
+            mark(value.phi, value.block);
+        }
+    }
+
+    // mark the branches this block is control dependent on
+    private void markControl(IRBlock block) {
+        if (!this.pdom.isReachable(block.index)) {
+            return;
+        }
+        for (int c : this.pdom.frontier.get(block.index)) {
+            if (c >= this.cfg.blocks.size()) {
+                continue;
+            }
+            List<IRInstruction> code = this.ssa.code.get(c);
+            IRInstruction last = code.get(code.size() - 1);
+            if (IRcfg.isBranch(last)) {
+                mark(last, this.cfg.blocks.get(c));
+            }
+        }
+    }
+
+    private void markAll() {
+        // critical instrucs: anything with a side effect, and branches we cannot reason about
+        for (IRBlock block : this.cfg.blocks) {
+            if (!this.ssa.isReachable(block)) {
+                continue;
+            }
+            boolean reaches_exit = this.pdom.isReachable(block.index);
+            for (IRInstruction renamed : this.ssa.code.get(block.index)) {
+                this.block_of.put(renamed, block);
+                switch (renamed.opCode) {
+                    case RETURN, ARRAY_STORE -> mark(renamed, block);
+                    case CALL, CALLR -> {
+                        if (this.calls == null || !this.calls.isRemovable(renamed)) {
+                            mark(renamed, block);
+                        }
+                    }
+                    case ASSIGN -> {
+                        if (renamed.operands.length > 2) { // array fill writes memory
+                            mark(renamed, block);
+                        }
+                    }
+                    case BREQ, BRNEQ, BRLT, BRGT, BRGEQ -> {
+                        boolean stuck = !reaches_exit;
+                        for (IRBlock succ : block.successors) {
+                            stuck |= !this.pdom.isReachable(succ.index);
+                        }
+                        if (stuck) {
+                            mark(renamed, block);
+                        }
+                    }
+                    default -> {
+                        break;
+                    }
+                }
+            }
+        }
+
+        while (!this.worklist.isEmpty()) {
+            Object item = this.worklist.poll();
+            if (item instanceof SSAForm.Phi) {
+                SSAForm.Phi phi = (SSAForm.Phi) item;
+                for (SSAForm.Value arg : phi.args) {
+                    markValue(arg);
+                }
+                // which edge we come in on decides the value, so the branches that pick the edge matter too
+                for (IRBlock pred : phi.block.predecessors) {
+                    markControl(pred);
+                }
+                markControl(phi.block);
+            } else {
+                IRInstruction renamed = (IRInstruction) item;
+                for (int i = 0; i < renamed.operands.length; i++) {
+                    if (SSAForm.isScalarUse(renamed, i)) {
+                        markValue(this.ssa.valueOf(renamed.operands[i]));
+                    }
+                }
+                markControl(this.block_of.get(renamed));
+            }
+        }
+    }
+
+    // nearest post-dominator with marked code, -1 if there is none before the exit
+    private int liveTarget(IRBlock block) {
+        int target = this.pdom.parent(block.index);
+        while (target != -1 && target < this.cfg.blocks.size() && !this.live_block[target]) {
+            target = this.pdom.parent(target);
+        }
+        return (target >= this.cfg.blocks.size()) ? -1 : target;
+    }
+
+    private int sweep(IRFunction function) {
+        this.ssa = new SSAForm(function);
+        this.cfg = this.ssa.cfg;
+        this.pdom = DominatorTree.postDominators(this.cfg);
+        this.live_block = new boolean[this.cfg.blocks.size()];
+        markAll();
+
+        // first decide where every unmarked branch goes, so we know which blocks need a (new) label
+        IRBuilder builder = new IRBuilder(function);
+        Map<IRInstruction, Integer> redirect = new IdentityHashMap<>(); // unmarked branch -> target block (-1 = function end)
+        String[] new_labels = new String[this.cfg.blocks.size()];
+        String end_label = null;
+        for (IRBlock block : this.cfg.blocks) {
+            if (!this.ssa.isReachable(block)) {
+                continue;
+            }
+            List<IRInstruction> code = this.ssa.code.get(block.index);
+            IRInstruction last = code.get(code.size() - 1);
+            if (!IRcfg.isBranch(last) || this.marked.contains(last)) {
+                continue;
+            }
+            int target = liveTarget(block);
+            redirect.put(last, target);
+            if (target == -1) {
+                if (end_label == null) {
+                    end_label = builder.newName("adce_end");
+                }
+            } else if (target != block.index + 1 && this.cfg.blocks.get(target).first().instruction.opCode != IRInstruction.OpCode.LABEL) {
+                if (new_labels[target] == null) {
+                    new_labels[target] = builder.newName("adce_target");
+                }
+            }
+        }
+
+        List<IRInstruction> result = new ArrayList<>();
+        for (IRBlock block : this.cfg.blocks) {
+            if (new_labels[block.index] != null) {
+                result.add(newLabelInstruction(builder, new_labels[block.index]));
+            }
+            if (!this.ssa.isReachable(block)) {
+                for (IRNode node : block.nodes) { // nothing gets here, only keep the labels
+                    if (node.instruction.opCode == IRInstruction.OpCode.LABEL) {
+                        result.add(node.instruction);
+                    }
+                }
+                continue;
+            }
+            for (IRInstruction renamed : this.ssa.code.get(block.index)) {
+                IRInstruction instruction = this.ssa.original.get(renamed);
+                if (redirect.containsKey(renamed)) {
+                    int target = redirect.get(renamed);
+                    if (target == block.index + 1) {
+                        continue; // falls through there anyway
+                    }
+                    String label;
+                    if (target == -1) {
+                        label = end_label;
+                    } else if (new_labels[target] != null) {
+                        label = new_labels[target];
+                    } else {
+                        label = ((IRLabelOperand) this.cfg.blocks.get(target).first().instruction.operands[0]).getName();
+                    }
+                    IRInstruction jump = builder.newInstruction(IRInstruction.OpCode.GOTO);
+                    jump.operands = new IROperand[]{new IRLabelOperand(label, jump)};
+                    result.add(jump);
+                } else if (instruction.opCode == IRInstruction.OpCode.LABEL || instruction.opCode == IRInstruction.OpCode.GOTO
+                        || this.marked.contains(renamed)) {
+                    result.add(instruction);
+                }
+            }
+        }
+        if (end_label != null) {
+            result.add(newLabelInstruction(builder, end_label));
+        }
+
+        int removed = countNonLabels(function.instructions) - countNonLabels(result);
+        function.instructions = result;
+        return removed;
+    }
+
+    private static IRInstruction newLabelInstruction(IRBuilder builder, String name) {
+        IRInstruction label = builder.newInstruction(IRInstruction.OpCode.LABEL);
+        label.operands = new IROperand[]{new IRLabelOperand(name, label)};
+        return label;
+    }
+
+    private static int countNonLabels(List<IRInstruction> instructions) {
+        int count = 0;
+        for (IRInstruction instruction : instructions) {
+            if (instruction.opCode != IRInstruction.OpCode.LABEL) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,90 @@
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.datatype.IRArrayType;
+import ir.datatype.IRType;
+import ir.operand.IROperand;
+import ir.operand.IRVariableOperand;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class ArrayAliasAnalysis {
+    //Which array names of a function may be the same memory
+        //a local array (IRFunction.variables) is its own memory, every call makes a new one and nothing else can name it
+        //array params come in by reference, the caller may pass one array for several of them, but IRReader only accepts an
+        //argument of exactly the param's type, so only params of the same IRArrayType can alias
+    //Names are grouped into alias classes (each local alone, the params by type): a write through one name of a class may
+        //change what every name of that class reads, names of different classes never share memory
+    //A call can only reach the arrays it gets passed (there are no globals), with a CallGraph only those its callee may write
+    //Escape: arrays cannot be assigned, stored or returned, so a local array is only ever seen outside the function while it
+        //is passed to a call, and only until that call returns (locals are new on every call)
+
+    public List<String> arrays = new ArrayList<>();
+    public List<String> locals = new ArrayList<>(); // the local arrays (every other array is a param)
+    public Set<String> passed = new HashSet<>(); // local arrays that are an argument of some call
+    private Map<String, Integer> class_of = new HashMap<>();
+    private int num_classes = 0;
+
+    public ArrayAliasAnalysis(IRFunction function) {
+        Map<IRType, Integer> param_class = new HashMap<>();
+        for (IRVariableOperand param : function.parameters) {
+            if (param.type instanceof IRArrayType) {
+                this.arrays.add(param.getName());
+                this.class_of.put(param.getName(), param_class.computeIfAbsent(param.type, type -> this.num_classes++));
+            }
+        }
+        for (IRVariableOperand variable : function.variables) {
+            if (variable.type instanceof IRArrayType && !this.class_of.containsKey(variable.getName())) {
+                this.arrays.add(variable.getName());
+                this.locals.add(variable.getName());
+                this.class_of.put(variable.getName(), this.num_classes++);
+            }
+        }
+        for (IRInstruction instruction : function.instructions) {
+            if (instruction.opCode == IRInstruction.OpCode.CALL || instruction.opCode == IRInstruction.OpCode.CALLR) {
+                for (IROperand operand : instruction.operands) {
+                    if (operand instanceof IRVariableOperand && this.locals.contains(operand.toString())) {
+                        this.passed.add(operand.toString());
+                    }
+                }
+            }
+        }
+    }
+
+    public boolean isLocal(IROperand array) {
+        return this.locals.contains(array.toString());
+    }
+
+    public int numClasses() {
+        return this.num_classes;
+    }
+
+    public int classOf(IROperand array) {
+        return this.class_of.get(array.toString());
+    }
+
+    public boolean mayAlias(IROperand a, IROperand b) {
+        return classOf(a) == classOf(b);
+    }
+
+    // alias classes a CALL/CALLR may write: its array args, only those whose param the callee may write if calls knows it
+    public List<Integer> writtenBy(IRInstruction call, CallGraph calls) {
+        CallGraph.Summary summary = (calls == null) ? null : calls.of(call);
+        int first = (call.opCode == IRInstruction.OpCode.CALLR) ? 2 : 1;
+        List<Integer> result = new ArrayList<>();
+        for (int i = first; i < call.operands.length; i++) {
+            IROperand operand = call.operands[i];
+            if (!(operand instanceof IRVariableOperand) || !(((IRVariableOperand) operand).type instanceof IRArrayType)) {
+                continue;
+            }
+            if (summary == null || summary.function == null || i - first >= summary.writes.length || summary.writes[i - first]) {
+                result.add(classOf(operand));
+            }
+        }
+        return result;
+    }
+}
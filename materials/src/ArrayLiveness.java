@@ -0,0 +1,136 @@
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.datatype.IRArrayType;
+import ir.datatype.IRIntType;
+import ir.operand.IRConstantOperand;
+import ir.operand.IROperand;
+import ir.operand.IRVariableOperand;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ArrayLiveness extends BitVectorAnalysis {
+    //Backward liveness of the local arrays of a function (ArrayAliasAnalysis.locals): an array is live at a point if some path
+        //from there reads it before it is filled again as a whole
+        //reads: ARRAY_LOAD, and a call that gets the array passed (with a CallGraph only if the callee may read that param)
+        //kill: an array fill of the whole array (assign A, size, v), a store or a shorter fill leaves the other elements
+    //Params are never tracked, the caller sees their memory after we return, and nothing else can reach a local array
+        //(ArrayAliasAnalysis), so a store to a local array that is not live right after it can never be read
+    //Instruc-level liveness is recovered by walking a block backwards from out(block) with step()
+    public List<String> arrays;
+    public Map<String, Integer> arrayIndex = new HashMap<>();
+    private CallGraph calls;
+
+    public ArrayLiveness(IRFunction function, CallGraph calls) {
+        this.arrays = new ArrayAliasAnalysis(function).locals;
+        for (int i = 0; i < this.arrays.size(); i++) {
+            this.arrayIndex.put(this.arrays.get(i), i);
+        }
+        this.calls = calls;
+    }
+
+    public String name() {
+        return "array liveness";
+    }
+
+    public boolean isForward() {
+        return false;
+    }
+
+    protected boolean isUnion() {
+        return true;
+    }
+
+    protected int size() {
+        return this.arrays.size();
+    }
+
+    protected void init(IRcfg cfg) {
+        this.gen = new IRBitVector[cfg.blocks.size()];
+        this.kill = new IRBitVector[cfg.blocks.size()];
+        for (IRBlock block : cfg.blocks) {
+            IRBitVector read = new IRBitVector(size());
+            IRBitVector filled = new IRBitVector(size());
+            for (IRNode node : block.nodes) {
+                IRInstruction instruction = node.instruction;
+                for (int i = 0; i < instruction.operands.length; i++) {
+                    int a = index(instruction.operands[i]);
+                    if (a >= 0 && reads(instruction, i) && !filled.get(a)) {
+                        read.set(a);
+                    }
+                }
+                int a = filledArray(instruction);
+                if (a >= 0) {
+                    filled.set(a);
+                }
+            }
+            this.gen[block.index] = read;
+            this.kill[block.index] = filled;
+        }
+    }
+
+    // index of a local array operand, -1 for anything else
+    public int index(IROperand operand) {
+        if (!(operand instanceof IRVariableOperand) || !(((IRVariableOperand) operand).type instanceof IRArrayType)) {
+            return -1;
+        }
+        return this.arrayIndex.getOrDefault(operand.toString(), -1);
+    }
+
+    // does the instruc read the array in operands[i]
+    private boolean reads(IRInstruction instruction, int i) {
+        switch (instruction.opCode) {
+            case ARRAY_LOAD -> {
+                return i == 1;
+            }
+            case CALL, CALLR -> {
+                int first = (instruction.opCode == IRInstruction.OpCode.CALLR) ? 2 : 1;
+                CallGraph.Summary summary = (this.calls == null) ? null : this.calls.of(instruction);
+                return summary == null || summary.function == null || i - first >= summary.reads.length || summary.reads[i - first];
+            }
+            default -> {
+                return false;
+            }
+        }
+    }
+
+    // the local array a fill of the whole array writes, -1 if the instruc is not one
+    private int filledArray(IRInstruction instruction) {
+        if (instruction.opCode != IRInstruction.OpCode.ASSIGN || instruction.operands.length != 3) {
+            return -1;
+        }
+        int a = index(instruction.operands[0]);
+        IROperand count = instruction.operands[1];
+        if (a < 0 || !(count instanceof IRConstantOperand) || ((IRConstantOperand) count).type != IRIntType.get()) {
+            return -1;
+        }
+        int size = ((IRArrayType) ((IRVariableOperand) instruction.operands[0]).type).getSize();
+        return (Integer.parseInt(((IRConstantOperand) count).getValueString()) == size) ? a : -1;
+    }
+
+    // the local array an ARRAY_STORE or array fill writes, -1 if the instruc is not one
+    public int writtenArray(IRInstruction instruction) {
+        if (instruction.opCode == IRInstruction.OpCode.ARRAY_STORE) {
+            return index(instruction.operands[1]);
+        }
+        if (instruction.opCode == IRInstruction.OpCode.ASSIGN && instruction.operands.length == 3) {
+            return index(instruction.operands[0]);
+        }
+        return -1;
+    }
+
+    // live = the arrays live right after instruction -> the arrays live right before it
+    public void step(IRInstruction instruction, IRBitVector live) {
+        int filled = filledArray(instruction);
+        if (filled >= 0) {
+            live.clear(filled);
+        }
+        for (int i = 0; i < instruction.operands.length; i++) {
+            int a = index(instruction.operands[i]);
+            if (a >= 0 && reads(instruction, i)) {
+                live.set(a);
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+import ir.IRInstruction;
+import ir.operand.IRVariableOperand;
+
+import java.util.Map;
+
+public class AvailableCopies extends SparseAnalysis<String> {
+    //Forward "must" problem: copy x = y (scalar assign of a variable) is available at a point if it is on every path
+        //to it and neither x nor y was redefined since
+    //Facts map the target of a copy to its source, only a handful hold at any time so the maps stay small
+    //Instruc-level facts are recovered by walking a block forwards from in(block) with step()
+
+    public String name() {
+        return "available copies";
+    }
+
+    public boolean isForward() {
+        return true;
+    }
+
+    // is this a copy of one scalar variable into another
+    public static boolean isCopy(IRInstruction instruction) {
+        return instruction.opCode == IRInstruction.OpCode.ASSIGN && instruction.operands.length == 2
+                && instruction.operands[1] instanceof IRVariableOperand
+                && !instruction.operands[0].toString().equals(instruction.operands[1].toString());
+    }
+
+    protected void transfer(IRBlock block, Map<String, String> facts) {
+        for (IRNode node : block.nodes) {
+            step(node.instruction, facts);
+        }
+    }
+
+    // facts before instruction -> facts after it
+    public void step(IRInstruction instruction, Map<String, String> facts) {
+        if (!SSAForm.isScalarDef(instruction)) {
+            return;
+        }
+        String target = instruction.operands[0].toString();
+        facts.remove(target);
+        facts.values().removeIf(source -> source.equals(target));
+        if (isCopy(instruction)) {
+            facts.put(target, instruction.operands[1].toString());
+        }
+    }
+}
@@ -0,0 +1,41 @@
+public abstract class BitVectorAnalysis extends DataflowAnalysis<IRBitVector> {
+    //Dataflow problem whose facts are IRBitVectors and whose block transfer is OUT = GEN U (IN - KILL)
+        //(IN/OUT swap roles when backward), meet is union for "may" problems and intersection for "must" problems
+    //Subclasses fill gen/kill (by block index) in init()
+    protected IRBitVector[] gen;
+    protected IRBitVector[] kill;
+
+    // number of bits (definitions, variables, expressions, ...)
+    protected abstract int size();
+
+    // true: meet is union and top is the empty set, false: meet is intersection and top is the full set
+    protected abstract boolean isUnion();
+
+    protected IRBitVector newFact() {
+        IRBitVector fact = new IRBitVector(size());
+        if (!isUnion()) {
+            fact.setAll();
+        }
+        return fact;
+    }
+
+    protected void meetInto(IRBitVector target, IRBitVector other) {
+        if (isUnion()) {
+            target.or(other);
+        } else {
+            target.and(other);
+        }
+    }
+
+    protected void copyInto(IRBitVector target, IRBitVector source) {
+        target.copyFrom(source);
+    }
+
+    protected boolean sameFact(IRBitVector a, IRBitVector b) {
+        return a.equals(b);
+    }
+
+    protected void transfer(IRBlock block, IRBitVector input, IRBitVector result) {
+        result.transfer(this.gen[block.index], input, this.kill[block.index]);
+    }
+}
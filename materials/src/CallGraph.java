@@ -0,0 +1,299 @@
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.IRProgram;
+import ir.datatype.IRArrayType;
+import ir.datatype.IRIntType;
+import ir.operand.IRConstantOperand;
+import ir.operand.IRFunctionOperand;
+import ir.operand.IROperand;
+import ir.operand.IRVariableOperand;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class CallGraph {
+    //Whole-program call graph over IRProgram.functions plus the intrinsics of IRReader (geti, getf, getc, puti, putf, putc)
+    //Every function gets a Summary of what a call to it can do besides computing its result
+        //reads/writes: array params it may read/write (arrays are the only memory a callee can reach, they come in by reference)
+        //io: reads input or prints (itself or through a callee), every intrinsic does
+        //mayNotTerminate: has a cycle in its CFG, is recursive, or calls something that may not terminate
+        //mayTrap: int DIV by something that is not a nonzero constant, an array access/fill that is not a constant in range,
+            //or a callee that may trap
+    //Summaries of callers are built from their callees' (array args mapped back to the caller's params) until nothing changes
+    //A call to a function with no io, no writes and that terminates can be dropped when its result is unused (DCE),
+        //if it also reads nothing it computes the same result from the same args (CSE) and can move (LICM, when it cannot trap)
+
+    public static final List<String> INTRINSICS = Arrays.asList("geti", "getf", "getc", "puti", "putf", "putc");
+
+    public static class Summary {
+        public String name;
+        public IRFunction function; // null for intrinsics
+        public Set<String> callees = new HashSet<>();
+        public boolean[] reads; // by param index
+        public boolean[] writes;
+        public boolean io;
+        public boolean mayNotTerminate;
+        public boolean mayTrap;
+
+        public boolean readsMemory() {
+            for (boolean read : this.reads) {
+                if (read) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public boolean writesMemory() {
+            for (boolean write : this.writes) {
+                if (write) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // a call whose result is unused changes nothing
+        public boolean isRemovable() {
+            return !this.io && !writesMemory() && !this.mayNotTerminate;
+        }
+
+        // For testing purposes
+        public String toString() {
+            return this.name + ": reads " + Arrays.toString(this.reads) + " writes " + Arrays.toString(this.writes)
+                    + (this.io ? " io" : "") + (this.mayNotTerminate ? " may-not-terminate" : "") + (this.mayTrap ? " may-trap" : "");
+        }
+    }
+
+    public Map<String, Summary> summaries = new LinkedHashMap<>();
+
+    public CallGraph(IRProgram program) {
+        for (String name : INTRINSICS) {
+            Summary summary = new Summary();
+            summary.name = name;
+            summary.reads = new boolean[1];
+            summary.writes = new boolean[1];
+            summary.io = true;
+            this.summaries.put(name, summary);
+        }
+        for (IRFunction function : program.functions) {
+            Summary summary = new Summary();
+            summary.name = function.name;
+            summary.function = function;
+            summary.reads = new boolean[function.parameters.size()];
+            summary.writes = new boolean[function.parameters.size()];
+            this.summaries.put(function.name, summary);
+        }
+        for (Summary summary : this.summaries.values()) {
+            if (summary.function != null) {
+                local(summary);
+            }
+        }
+
+        // recursion: a function that reaches itself
+        for (Summary summary : this.summaries.values()) {
+            Set<String> seen = new HashSet<>();
+            List<String> stack = new ArrayList<>(summary.callees);
+            while (!stack.isEmpty()) {
+                String next = stack.remove(stack.size() - 1);
+                if (next.equals(summary.name)) {
+                    summary.mayNotTerminate = true;
+                    break;
+                }
+                if (seen.add(next) && this.summaries.containsKey(next)) {
+                    stack.addAll(this.summaries.get(next).callees);
+                }
+            }
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Summary summary : this.summaries.values()) {
+                if (summary.function != null) {
+                    changed |= propagate(summary);
+                }
+            }
+        }
+    }
+
+    public static String calleeName(IRInstruction instruction) {
+        if (instruction.opCode == IRInstruction.OpCode.CALL) {
+            return ((IRFunctionOperand) instruction.operands[0]).getName();
+        }
+        if (instruction.opCode == IRInstruction.OpCode.CALLR) {
+            return ((IRFunctionOperand) instruction.operands[1]).getName();
+        }
+        return null;
+    }
+
+    // summary of the function a CALL/CALLR calls, null for anything else
+    public Summary of(IRInstruction instruction) {
+        String name = calleeName(instruction);
+        return (name == null) ? null : this.summaries.get(name);
+    }
+
+    // the call can go when its result is unused
+    public boolean isRemovable(IRInstruction call) {
+        Summary summary = of(call);
+        return summary != null && summary.isRemovable();
+    }
+
+    // the call returns the same value for the same args and has no other effect (no memory read either)
+    public boolean isPure(IRInstruction call) {
+        Summary summary = of(call);
+        return summary != null && summary.isRemovable() && !summary.readsMemory();
+    }
+
+    // the call may change an array it gets passed
+    public boolean writesMemory(IRInstruction call) {
+        Summary summary = of(call);
+        return summary == null || summary.writesMemory();
+    }
+
+    private static int paramIndex(IRFunction function, IROperand operand) {
+        for (int k = 0; k < function.parameters.size(); k++) {
+            if (function.parameters.get(k).getName().equals(operand.toString())) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isConstantIn(IROperand operand, int low, int high) {
+        if (!(operand instanceof IRConstantOperand) || ((IRConstantOperand) operand).type != IRIntType.get()) {
+            return false;
+        }
+        int value = Integer.parseInt(((IRConstantOperand) operand).getValueString());
+        return value >= low && value <= high;
+    }
+
+    private static int sizeOf(IROperand array) {
+        return ((IRArrayType) ((IRVariableOperand) array).type).getSize();
+    }
+
+    // what the function's own instrucs do
+    private void local(Summary summary) {
+        IRFunction function = summary.function;
+        for (IRInstruction instruction : function.instructions) {
+            switch (instruction.opCode) {
+                case ARRAY_LOAD -> {
+                    int k = paramIndex(function, instruction.operands[1]);
+                    if (k >= 0) {
+                        summary.reads[k] = true;
+                    }
+                    summary.mayTrap |= !isConstantIn(instruction.operands[2], 0, sizeOf(instruction.operands[1]) - 1);
+                }
+                case ARRAY_STORE -> {
+                    int k = paramIndex(function, instruction.operands[1]);
+                    if (k >= 0) {
+                        summary.writes[k] = true;
+                    }
+                    summary.mayTrap |= !isConstantIn(instruction.operands[2], 0, sizeOf(instruction.operands[1]) - 1);
+                }
+                case ASSIGN -> {
+                    if (instruction.operands.length > 2) { // array fill
+                        int k = paramIndex(function, instruction.operands[0]);
+                        if (k >= 0) {
+                            summary.writes[k] = true;
+                        }
+                        summary.mayTrap |= !isConstantIn(instruction.operands[1], 0, sizeOf(instruction.operands[0]));
+                    }
+                }
+                case DIV -> {
+                    summary.mayTrap |= ((IRVariableOperand) instruction.operands[0]).type == IRIntType.get()
+                            && !(instruction.operands[2] instanceof IRConstantOperand
+                            && Integer.parseInt(((IRConstantOperand) instruction.operands[2]).getValueString()) != 0);
+                }
+                case CALL, CALLR -> summary.callees.add(calleeName(instruction));
+                default -> {
+                    break;
+                }
+            }
+        }
+        // a function that may come back to code it already ran may run forever
+        if (!function.instructions.isEmpty()) {
+            IRcfg cfg = new IRcfg(function);
+            summary.mayNotTerminate |= hasCycle(cfg);
+        }
+        // the interpreter stops with an error when a function with a return type runs off its end
+        if (function.returnType != null && (function.instructions.isEmpty()
+                || function.instructions.get(function.instructions.size() - 1).opCode != IRInstruction.OpCode.RETURN)) {
+            summary.mayTrap = true;
+        }
+    }
+
+    // a retreating edge of a dfs from the entry (also catches irreducible cycles)
+    private static boolean hasCycle(IRcfg cfg) {
+        int n = cfg.blocks.size();
+        int[] state = new int[n]; // 0 new, 1 on the stack, 2 done
+        int[] next_succ = new int[n];
+        int[] stack = new int[n];
+        int top = 0;
+        stack[top++] = 0;
+        state[0] = 1;
+        while (top > 0) {
+            IRBlock block = cfg.blocks.get(stack[top - 1]);
+            if (next_succ[block.index] < block.successors.size()) {
+                IRBlock succ = block.successors.get(next_succ[block.index]++);
+                if (state[succ.index] == 1) {
+                    return true;
+                }
+                if (state[succ.index] == 0) {
+                    state[succ.index] = 1;
+                    stack[top++] = succ.index;
+                }
+            } else {
+                state[block.index] = 2;
+                top--;
+            }
+        }
+        return false;
+    }
+
+    // fold the callees' summaries into the caller's, true if anything changed
+    private boolean propagate(Summary summary) {
+        boolean changed = false;
+        IRFunction function = summary.function;
+        for (IRInstruction instruction : function.instructions) {
+            Summary callee = of(instruction);
+            if (callee == null) {
+                if (calleeName(instruction) != null && !(summary.io && summary.mayNotTerminate && summary.mayTrap)) { // not a function we know
+                    summary.io = summary.mayNotTerminate = summary.mayTrap = true;
+                    changed = true;
+                }
+                continue;
+            }
+            if ((callee.io && !summary.io) || (callee.mayNotTerminate && !summary.mayNotTerminate) || (callee.mayTrap && !summary.mayTrap)) {
+                summary.io |= callee.io;
+                summary.mayNotTerminate |= callee.mayNotTerminate;
+                summary.mayTrap |= callee.mayTrap;
+                changed = true;
+            }
+            if (callee.function == null) {
+                continue;
+            }
+            int first = (instruction.opCode == IRInstruction.OpCode.CALLR) ? 2 : 1;
+            for (int j = 0; j < callee.reads.length && first + j < instruction.operands.length; j++) {
+                int k = paramIndex(function, instruction.operands[first + j]);
+                if (k < 0) {
+                    continue;
+                }
+                if (callee.reads[j] && !summary.reads[k]) {
+                    summary.reads[k] = true;
+                    changed = true;
+                }
+                if (callee.writes[j] && !summary.writes[k]) {
+                    summary.writes[k] = true;
+                    changed = true;
+                }
+            }
+        }
+        return changed;
+    }
+}
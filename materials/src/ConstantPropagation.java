@@ -0,0 +1,356 @@
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.datatype.IRFloatType;
+import ir.datatype.IRIntType;
+import ir.datatype.IRType;
+import ir.operand.IRConstantOperand;
+import ir.operand.IRLabelOperand;
+import ir.operand.IROperand;
+import ir.operand.IRVariableOperand;
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+public class ConstantPropagation {
+    //Sparse conditional constant propagation (Wegman & Zadeck) on top of SSAForm
+        //lattice per SSA value: TOP (null, no executable def seen yet) > constant (Integer/Float) > BOTTOM
+        //only edges found executable feed phis, so constants flowing around a branch that never goes one way survive
+    //Evaluation follows IRInterpreter exactly: the dest type picks int or float arithmetic, int DIV by 0 is never folded
+        //(the run time error stays), float AND/OR are not folded
+    //Locals start at 0 (the interpreter zero-initializes them on every call), parameters are BOTTOM
+    //Rewrite works on the original instrucs: scalar uses with a constant value become constant operands, branches with
+        //a known outcome become a goto (taken) or go away (falls through), blocks that are never executable lose everything
+        //but their labels
+    //Branch operands[1] is left a variable (the interpreter takes the compare type from it)
+
+    private static final Object BOTTOM = new Object();
+
+    private SSAForm ssa;
+    private IRcfg cfg;
+    private Object[] lattice; // by value id, null = TOP
+    private boolean[] executable; // by block index
+    private Set<Long> executable_edges = new HashSet<>(); // from * blocks.size() + to
+    private Map<IRInstruction, IRBlock> block_of = new IdentityHashMap<>(); // renamed instruc -> its block
+    private Deque<IRBlock> block_worklist = new ArrayDeque<>();
+    private Deque<Object> ssa_worklist = new ArrayDeque<>(); // renamed instrucs and phis to re-evaluate
+
+    // returns how many instrucs were changed (operands folded, branches folded) or removed
+    public static int run(IRFunction function) {
+        if (function.instructions.isEmpty()) {
+            return 0;
+        }
+        return new ConstantPropagation().rewrite(function);
+    }
+
+    private void propagate(IRFunction function) {
+        this.ssa = new SSAForm(function);
+        this.cfg = this.ssa.cfg;
+        this.lattice = new Object[this.ssa.values.size()];
+        this.executable = new boolean[this.cfg.blocks.size()];
+        Set<String> parameters = new HashSet<>();
+        for (IRVariableOperand parameter : function.parameters) {
+            parameters.add(parameter.getName());
+        }
+        for (SSAForm.Value value : this.ssa.values) {
+            if (value.isEntryValue()) {
+                this.lattice[value.id] = parameters.contains(value.var) ? BOTTOM : zero(value.type);
+            }
+        }
+        for (IRBlock block : this.cfg.blocks) {
+            for (IRInstruction renamed : this.ssa.code.get(block.index)) {
+                this.block_of.put(renamed, block);
+            }
+        }
+
+        this.executable[0] = true;
+        this.block_worklist.add(this.cfg.blocks.get(0));
+        while (!this.block_worklist.isEmpty() || !this.ssa_worklist.isEmpty()) {
+            while (!this.block_worklist.isEmpty()) {
+                IRBlock block = this.block_worklist.poll();
+                for (SSAForm.Phi phi : this.ssa.phis.get(block.index)) {
+                    visitPhi(phi);
+                }
+                for (IRInstruction renamed : this.ssa.code.get(block.index)) {
+                    visit(renamed);
+                }
+                IRInstruction last = this.ssa.code.get(block.index).get(this.ssa.code.get(block.index).size() - 1);
+                if (!IRcfg.isBranch(last)) {
+                    for (IRBlock succ : block.successors) {
+                        markEdge(block, succ);
+                    }
+                }
+            }
+            while (!this.ssa_worklist.isEmpty()) {
+                Object item = this.ssa_worklist.poll();
+                if (item instanceof SSAForm.Phi) {
+                    if (this.executable[((SSAForm.Phi) item).block.index]) {
+                        visitPhi((SSAForm.Phi) item);
+                    }
+                } else if (this.executable[this.block_of.get((IRInstruction) item).index]) {
+                    visit((IRInstruction) item);
+                }
+            }
+        }
+    }
+
+    private void markEdge(IRBlock from, IRBlock to) {
+        if (!this.executable_edges.add((long) from.index * this.cfg.blocks.size() + to.index)) {
+            return;
+        }
+        if (!this.executable[to.index]) {
+            this.executable[to.index] = true;
+            this.block_worklist.add(to);
+        } else {
+            this.ssa_worklist.addAll(this.ssa.phis.get(to.index)); // a new edge can lower the phis
+        }
+    }
+
+    private boolean isExecutable(IRBlock from, IRBlock to) {
+        return this.executable_edges.contains((long) from.index * this.cfg.blocks.size() + to.index);
+    }
+
+    private void lower(SSAForm.Value value, Object result) {
+        Object current = this.lattice[value.id];
+        if (current == BOTTOM || result == null || Objects.equals(current, result)) {
+            return;
+        }
+        this.lattice[value.id] = (current == null) ? result : BOTTOM;
+        this.ssa_worklist.addAll(value.uses);
+    }
+
+    private static Object meet(Object a, Object b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null || Objects.equals(a, b)) {
+            return a;
+        }
+        return BOTTOM;
+    }
+
+    private void visitPhi(SSAForm.Phi phi) {
+        Object result = null;
+        List<IRBlock> predecessors = phi.block.predecessors;
+        for (int j = 0; j < phi.args.length; j++) {
+            boolean entry_edge = j == predecessors.size(); // the function entry edge of the entry block
+            if (phi.args[j] != null && (entry_edge || isExecutable(predecessors.get(j), phi.block))) {
+                result = meet(result, this.lattice[phi.args[j].id]);
+            }
+        }
+        lower(phi.target, result);
+    }
+
+    private void visit(IRInstruction renamed) {
+        if (SSAForm.isScalarDef(renamed)) {
+            lower(this.ssa.defOf.get(renamed), evaluate(renamed));
+        } else if (IRcfg.isBranch(renamed)) {
+            IRBlock block = this.block_of.get(renamed);
+            Object outcome = evaluate(renamed);
+            if (outcome == null) {
+                return;
+            }
+            if (outcome == BOTTOM || outcome.equals(Boolean.TRUE)) {
+                markEdge(block, this.cfg.labelToBlock.get(((IRLabelOperand) renamed.operands[0]).getName()));
+            }
+            if ((outcome == BOTTOM || outcome.equals(Boolean.FALSE)) && block.index + 1 < this.cfg.blocks.size()) {
+                markEdge(block, this.cfg.blocks.get(block.index + 1));
+            }
+        }
+    }
+
+    // lattice value of an operand of a renamed instruc
+    private Object valueOf(IROperand operand) {
+        if (operand instanceof IRConstantOperand) {
+            IRConstantOperand constant = (IRConstantOperand) operand;
+            if (constant.type == IRIntType.get()) {
+                return Integer.parseInt(constant.getValueString());
+            }
+            return Float.parseFloat(constant.getValueString());
+        }
+        SSAForm.Value value = this.ssa.valueOf(operand);
+        return (value == null) ? BOTTOM : this.lattice[value.id];
+    }
+
+    // result of a scalar def, or the outcome (Boolean) of a branch
+    private Object evaluate(IRInstruction renamed) {
+        switch (renamed.opCode) {
+            case ASSIGN -> {
+                return valueOf(renamed.operands[1]);
+            }
+            case ADD, SUB, MULT, DIV, AND, OR -> {
+                return fold(renamed.opCode, ((IRVariableOperand) renamed.operands[0]).type,
+                        valueOf(renamed.operands[1]), valueOf(renamed.operands[2]));
+            }
+            case BREQ, BRNEQ, BRLT, BRGT, BRGEQ -> {
+                return fold(renamed.opCode, ((IRVariableOperand) renamed.operands[1]).type,
+                        valueOf(renamed.operands[1]), valueOf(renamed.operands[2]));
+            }
+            default -> { // CALLR, ARRAY_LOAD
+                return BOTTOM;
+            }
+        }
+    }
+
+    private static Object fold(IRInstruction.OpCode opCode, IRType type, Object y, Object z) {
+        if (y == BOTTOM || z == BOTTOM) {
+            return BOTTOM;
+        }
+        if (y == null || z == null) {
+            return null;
+        }
+        if (type == IRIntType.get()) {
+            int iy = (Integer) y;
+            int iz = (Integer) z;
+            switch (opCode) {
+                case ADD -> { return iy + iz; }
+                case SUB -> { return iy - iz; }
+                case MULT -> { return iy * iz; }
+                case DIV -> { return (iz == 0) ? BOTTOM : (Object) (iy / iz); }
+                case AND -> { return iy & iz; }
+                case OR -> { return iy | iz; }
+                case BREQ -> { return iy == iz; }
+                case BRNEQ -> { return iy != iz; }
+                case BRLT -> { return iy < iz; }
+                case BRGT -> { return iy > iz; }
+                case BRGEQ -> { return iy >= iz; }
+                default -> { return BOTTOM; }
+            }
+        }
+        float fy = (Float) y;
+        float fz = (Float) z;
+        switch (opCode) {
+            case ADD -> { return fy + fz; }
+            case SUB -> { return fy - fz; }
+            case MULT -> { return fy * fz; }
+            case DIV -> { return fy / fz; }
+            case BREQ -> { return fy == fz; }
+            case BRNEQ -> { return fy != fz; }
+            case BRLT -> { return fy < fz; }
+            case BRGT -> { return fy > fz; }
+            case BRGEQ -> { return fy >= fz; }
+            default -> { return BOTTOM; }
+        }
+    }
+
+    private static Object zero(IRType type) {
+        return (type == IRFloatType.get()) ? (Object) 0.0f : (Object) 0;
+    }
+
+    // constant operand for a folded value, null if IRReader could not read it back (NaN/infinity)
+    public static IRConstantOperand constant(Object value, IRType type, IRInstruction parent) {
+        if (value instanceof Integer) {
+            return new IRConstantOperand(type, value.toString(), parent);
+        }
+        float f = (Float) value;
+        if (Float.isNaN(f) || Float.isInfinite(f)) {
+            return null;
+        }
+        // shortest decimal that reads back as the same float, without an exponent and always with a '.'
+        String text = new BigDecimal(Float.toString(f)).toPlainString();
+        if (text.indexOf('.') < 0) {
+            text += ".0";
+        }
+        if (f == 0.0f && 1.0f / f < 0) {
+            text = "-0.0";
+        }
+        return new IRConstantOperand(type, text, parent);
+    }
+
+    // is the target of the goto at position i one of the labels right after it
+    private static boolean jumpsToNext(List<IRInstruction> instructions, int i) {
+        String target = ((IRLabelOperand) instructions.get(i).operands[0]).getName();
+        for (int j = i + 1; j < instructions.size() && instructions.get(j).opCode == IRInstruction.OpCode.LABEL; j++) {
+            if (((IRLabelOperand) instructions.get(j).operands[0]).getName().equals(target)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int rewrite(IRFunction function) {
+        propagate(function);
+        IRBuilder builder = new IRBuilder(function);
+        int changed = 0;
+        List<IRInstruction> result = new ArrayList<>();
+        for (IRBlock block : this.cfg.blocks) {
+            if (!this.executable[block.index]) {
+                for (IRNode node : block.nodes) { // never executed, only keep the labels
+                    if (node.instruction.opCode == IRInstruction.OpCode.LABEL) {
+                        result.add(node.instruction);
+                    } else {
+                        changed++;
+                    }
+                }
+                continue;
+            }
+            for (IRInstruction renamed : this.ssa.code.get(block.index)) {
+                IRInstruction instruction = this.ssa.original.get(renamed);
+                if (IRcfg.isBranch(renamed)) {
+                    Object outcome = evaluate(renamed);
+                    if (outcome instanceof Boolean) {
+                        changed++;
+                        IRBlock taken = this.cfg.labelToBlock.get(((IRLabelOperand) renamed.operands[0]).getName());
+                        if (outcome.equals(Boolean.TRUE) && taken.index != block.index + 1) { // taking it to the next block is falling through
+                            IRInstruction jump = builder.newInstruction(IRInstruction.OpCode.GOTO);
+                            jump.operands = new IROperand[]{IRBuilder.copyOperand(instruction.operands[0], jump)};
+                            result.add(jump);
+                        }
+                        continue;
+                    }
+                }
+                if (SSAForm.isScalarDef(renamed) && renamed.opCode != IRInstruction.OpCode.ASSIGN) {
+                    // the whole computation is a constant: a copy of it is what the interpreter would have computed
+                    Object value = this.lattice[this.ssa.defOf.get(renamed).id];
+                    IRVariableOperand target = (IRVariableOperand) instruction.operands[0];
+                    IRInstruction assign = builder.newInstruction(IRInstruction.OpCode.ASSIGN);
+                    IRConstantOperand constant = (value == null || value == BOTTOM) ? null : constant(value, target.type, assign);
+                    if (constant != null) {
+                        assign.operands = new IROperand[]{IRBuilder.variable(target, assign), constant};
+                        result.add(assign);
+                        changed++;
+                        continue;
+                    }
+                }
+                boolean folded = false;
+                for (int i = 0; i < renamed.operands.length; i++) {
+                    if (!SSAForm.isScalarUse(renamed, i) || (i == 1 && IRcfg.isBranch(renamed))) {
+                        continue;
+                    }
+                    Object value = valueOf(renamed.operands[i]);
+                    if (value == null || value == BOTTOM) {
+                        continue;
+                    }
+                    IRConstantOperand constant = constant(value, ((IRVariableOperand) instruction.operands[i]).type, instruction);
+                    if (constant != null) {
+                        instruction.operands[i] = constant;
+                        folded = true;
+                    }
+                }
+                if (folded) {
+                    changed++;
+                }
+                result.add(instruction);
+            }
+        }
+        // a goto that only skips code we just removed lands right on its label
+        List<IRInstruction> cleaned = new ArrayList<>();
+        for (int i = 0; i < result.size(); i++) {
+            IRInstruction instruction = result.get(i);
+            if (instruction.opCode == IRInstruction.OpCode.GOTO && jumpsToNext(result, i)) {
+                changed++;
+                continue;
+            }
+            cleaned.add(instruction);
+        }
+        function.instructions = cleaned;
+        return changed;
+    }
+}
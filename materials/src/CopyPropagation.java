@@ -0,0 +1,126 @@
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.operand.IRVariableOperand;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class CopyPropagation {
+    //Global copy propagation from available copies: a scalar use of x where the copy x = y is available becomes a use of y
+        //the copies themselves are left alone, once nothing reads x anymore the DCE passes remove them
+    //A chain a = b, c = a, d = c collapses one link per round, so we redo it until no use changes
+    //Before that, copies out of temporaries are coalesced: add t, a, b / assign x, t becomes add x, a, b when t dies at the copy
+        //and x is not touched in between (the other direction of the usual frontend pattern)
+
+    // returns how many uses were rewritten plus how many copies were coalesced away
+    public static int run(IRFunction function) {
+        int total = coalesce(function); // first, otherwise propagation makes t live past the copy
+        int rewritten = propagate(function);
+        while (rewritten > 0) {
+            total += rewritten;
+            rewritten = propagate(function);
+        }
+        return total;
+    }
+
+    private static int propagate(IRFunction function) {
+        if (function.instructions.isEmpty()) {
+            return 0;
+        }
+        IRcfg cfg = new IRcfg(function);
+        AvailableCopies copies = new AvailableCopies();
+        copies.solve(cfg);
+
+        int rewritten = 0;
+        Map<String, String> facts = new HashMap<>();
+        for (IRBlock block : cfg.blocks) {
+            SparseAnalysis.Fact<String> in = copies.in(block);
+            if (in.top) { // never reached from the entry
+                continue;
+            }
+            facts.clear();
+            facts.putAll(in.map);
+            for (IRNode node : block.nodes) {
+                IRInstruction instruction = node.instruction;
+                for (int i = 0; i < instruction.operands.length; i++) {
+                    if (!SSAForm.isScalarUse(instruction, i)) {
+                        continue;
+                    }
+                    IRVariableOperand use = (IRVariableOperand) instruction.operands[i];
+                    String source = facts.get(use.getName());
+                    if (source != null) {
+                        instruction.operands[i] = new IRVariableOperand(use.type, source, instruction);
+                        rewritten++;
+                    }
+                }
+                copies.step(instruction, facts);
+            }
+        }
+        return rewritten;
+    }
+
+    private static int coalesce(IRFunction function) {
+        if (function.instructions.isEmpty()) {
+            return 0;
+        }
+        IRcfg cfg = new IRcfg(function);
+        Liveness liveness = new Liveness(function);
+        liveness.solve(cfg);
+
+        Set<IRInstruction> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (IRBlock block : cfg.blocks) {
+            IRBitVector live = new IRBitVector(liveness.vars.size());
+            live.copyFrom(liveness.out(block));
+            for (int c = block.nodes.size() - 1; c >= 0; c--) {
+                IRInstruction copy = block.nodes.get(c).instruction;
+                if (AvailableCopies.isCopy(copy) && !live.get(liveness.index(copy, 1))) {
+                    IRInstruction def = coalescibleDef(block, c);
+                    if (def != null) {
+                        def.operands[0] = new IRVariableOperand(((IRVariableOperand) copy.operands[0]).type, copy.operands[0].toString(), def);
+                        removed.add(copy);
+                        continue; // between def and copy nothing reads or writes x, so live stays as it is
+                    }
+                }
+                liveness.step(copy, live);
+            }
+        }
+        if (removed.isEmpty()) {
+            return 0;
+        }
+        List<IRInstruction> result = new ArrayList<>();
+        for (IRInstruction instruction : function.instructions) {
+            if (!removed.contains(instruction)) {
+                result.add(instruction);
+            }
+        }
+        function.instructions = result;
+        return removed.size();
+    }
+
+    // for the copy x = t at position c: the def of t earlier in the block if x/t are not touched in between, else null
+    private static IRInstruction coalescibleDef(IRBlock block, int c) {
+        IRInstruction copy = block.nodes.get(c).instruction;
+        String x = copy.operands[0].toString();
+        String t = copy.operands[1].toString();
+        for (int d = c - 1; d >= 0; d--) {
+            IRInstruction instruction = block.nodes.get(d).instruction;
+            if (SSAForm.isScalarDef(instruction) && instruction.operands[0].toString().equals(t)) {
+                return instruction;
+            }
+            for (int i = 0; i < instruction.operands.length; i++) {
+                if (instruction.operands[i] instanceof IRVariableOperand) {
+                    String name = instruction.operands[i].toString();
+                    if (name.equals(x) || name.equals(t)) {
+                        return null;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,140 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public abstract class DataflowAnalysis<F> {
+    //Framework for dataflow problems over the blocks of an IRcfg
+    //A subclass picks the direction and the lattice (fact type F, its top and meet) and gives the block transfer function
+        //forward:  IN[B] = meet OUT[P] over the predecessors (and the boundary fact at the entry), OUT[B] = transfer(B, IN[B])
+        //backward: OUT[B] = meet IN[S] over the successors (and the boundary fact at exits), IN[B] = transfer(B, OUT[B])
+    //Facts are updated in place (copyInto/meetInto), the solver is the RPO worklist (WorklistSolver)
+    //Transfer results are memoised per block: if the meet result is the same as the last time, the transfer is skipped
+
+    public static class Stats {
+        public String name;
+        public int runs = 0;
+        public int iterations = 0;
+        public int visits = 0;
+        public int transfers = 0;
+        public int memoHits = 0;
+        public long nanos = 0;
+
+        public Stats(String name) {
+            this.name = name;
+        }
+
+        // For testing purposes
+        public String toString() {
+            return String.format("%s: %d runs, %d iterations, %d block visits, %d transfers, %d memo hits, %.3f ms",
+                    name, runs, iterations, visits, transfers, memoHits, nanos / 1e6);
+        }
+    }
+
+    // per analysis name, summed over every run (Demo prints these)
+    public static Map<String, Stats> totals = new LinkedHashMap<>();
+
+    public Stats stats; // counters of the last solve()
+    protected IRcfg cfg;
+    protected List<F> in = new ArrayList<>(); // by block index
+    protected List<F> out = new ArrayList<>();
+    private List<F> memo = new ArrayList<>(); // the input the last transfer of each block was computed from
+    private boolean[] has_memo;
+
+    public abstract String name();
+
+    public abstract boolean isForward();
+
+    // lattice top: the identity of meet and the starting value of every block
+    protected abstract F newFact();
+
+    // fact at the function entry (forward) / exits (backward), top unless overridden
+    protected F boundaryFact() {
+        return newFact();
+    }
+
+    protected abstract void meetInto(F target, F other);
+
+    protected abstract void copyInto(F target, F source);
+
+    protected abstract boolean sameFact(F a, F b);
+
+    // result = the fact on the other side of the block, given the fact coming into it
+    protected abstract void transfer(IRBlock block, F input, F result);
+
+    // called once before solving (e.g. to build per-block GEN/KILL)
+    protected void init(IRcfg cfg) {}
+
+    public F in(IRBlock block) {
+        return this.in.get(block.index);
+    }
+
+    public F out(IRBlock block) {
+        return this.out.get(block.index);
+    }
+
+    public Stats solve(IRcfg cfg) {
+        long start = System.nanoTime();
+        this.cfg = cfg;
+        this.stats = new Stats(name());
+        init(cfg);
+        int n = cfg.blocks.size();
+        this.in.clear();
+        this.out.clear();
+        this.memo.clear();
+        this.has_memo = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            this.in.add(newFact());
+            this.out.add(newFact());
+            this.memo.add(newFact());
+        }
+        F top = newFact();
+        F boundary = boundaryFact();
+        F input = newFact();
+        F result = newFact();
+        boolean forward = isForward();
+
+        WorklistSolver solver = new WorklistSolver();
+        solver.solve(cfg, forward, block -> {
+            // meet over the neighbours we get facts from
+            copyInto(input, top);
+            List<IRBlock> sources = forward ? block.predecessors : block.successors;
+            for (IRBlock source : sources) {
+                meetInto(input, forward ? this.out.get(source.index) : this.in.get(source.index));
+            }
+            if (forward ? block.index == 0 : block.successors.isEmpty()) {
+                meetInto(input, boundary);
+            }
+            F side_in = forward ? this.in.get(block.index) : this.out.get(block.index);
+            F side_out = forward ? this.out.get(block.index) : this.in.get(block.index);
+            copyInto(side_in, input);
+
+            if (this.has_memo[block.index] && sameFact(this.memo.get(block.index), input)) {
+                this.stats.memoHits++;
+                return false;
+            }
+            this.stats.transfers++;
+            transfer(block, input, result);
+            copyInto(this.memo.get(block.index), input);
+            this.has_memo[block.index] = true;
+            if (sameFact(side_out, result)) {
+                return false;
+            }
+            copyInto(side_out, result);
+            return true;
+        });
+
+        this.stats.runs = 1;
+        this.stats.iterations = solver.iterations;
+        this.stats.visits = solver.visits;
+        this.stats.nanos = System.nanoTime() - start;
+        Stats total = totals.computeIfAbsent(name(), Stats::new);
+        total.runs++;
+        total.iterations += this.stats.iterations;
+        total.visits += this.stats.visits;
+        total.transfers += this.stats.transfers;
+        total.memoHits += this.stats.memoHits;
+        total.nanos += this.stats.nanos;
+        return this.stats;
+    }
+}
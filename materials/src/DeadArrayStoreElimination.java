@@ -0,0 +1,60 @@
+import ir.IRFunction;
+import ir.IRInstruction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+public class DeadArrayStoreElimination {
+    //Dead store elimination for local arrays: an ARRAY_STORE or array fill into a local array that is not live right after it
+        //(ArrayLiveness: no path reads the array again before a fill of the whole array) is dead
+    //Demo.markAlg treats every ARRAY_STORE as critical, so these would otherwise stay, together with everything that
+        //computes the stored values and indexes (the DCE passes pick those up once the stores are gone)
+    //Like the DCE passes with ARRAY_LOAD, an out of bounds index is not kept alive just for its trap
+    //Removing a store never makes an array live anywhere (stores are not reads), so one walk finds them all
+
+    // returns how many instrucs were removed from the function
+    public static int run(IRFunction function) {
+        return run(function, null);
+    }
+
+    public static int run(IRFunction function, CallGraph calls) {
+        if (function.instructions.isEmpty()) {
+            return 0;
+        }
+        ArrayLiveness liveness = new ArrayLiveness(function, calls);
+        if (liveness.arrays.isEmpty()) {
+            return 0;
+        }
+        IRcfg cfg = new IRcfg(function);
+        liveness.solve(cfg);
+
+        Set<IRInstruction> dead = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (IRBlock block : cfg.blocks) {
+            IRBitVector live = new IRBitVector(liveness.out(block));
+            for (int i = block.nodes.size() - 1; i >= 0; i--) {
+                IRInstruction instruction = block.nodes.get(i).instruction;
+                int written = liveness.writtenArray(instruction);
+                if (written >= 0 && !live.get(written)) {
+                    dead.add(instruction);
+                    continue;
+                }
+                liveness.step(instruction, live);
+            }
+        }
+        if (dead.isEmpty()) {
+            return 0;
+        }
+
+        List<IRInstruction> result = new ArrayList<>();
+        for (IRInstruction instruction : function.instructions) {
+            if (!dead.contains(instruction)) {
+                result.add(instruction);
+            }
+        }
+        function.instructions = result;
+        return dead.size();
+    }
+}
@@ -0,0 +1,54 @@
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.IRProgram;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class DeadFunctionElimination {
+    //Whole-program reachability from main over the call graph (CALL/CALLR operands, intrinsics are not functions of the program)
+    //Functions main never gets to, directly or through other functions, are dropped from IRProgram.functions so nothing
+        //optimizes, prints or loads them. Run it before optimizing and again before printing (inlining and DCE drop calls)
+    //Nothing is dropped when the program has no main
+
+    // returns how many functions were dropped
+    public static int run(IRProgram program) {
+        Map<String, IRFunction> functions = new HashMap<>();
+        for (IRFunction function : program.functions) {
+            functions.put(function.name, function);
+        }
+        if (!functions.containsKey("main")) {
+            return 0;
+        }
+
+        Set<String> reached = new HashSet<>();
+        Deque<IRFunction> worklist = new ArrayDeque<>();
+        reached.add("main");
+        worklist.add(functions.get("main"));
+        while (!worklist.isEmpty()) {
+            IRFunction function = worklist.poll();
+            for (IRInstruction instruction : function.instructions) {
+                String callee = CallGraph.calleeName(instruction);
+                if (callee != null && functions.containsKey(callee) && reached.add(callee)) {
+                    worklist.add(functions.get(callee));
+                }
+            }
+        }
+
+        List<IRFunction> kept = new ArrayList<>();
+        for (IRFunction function : program.functions) {
+            if (reached.contains(function.name)) {
+                kept.add(function);
+            }
+        }
+        int dropped = program.functions.size() - kept.size();
+        program.functions = kept;
+        return dropped;
+    }
+}
@@ -0,0 +1,68 @@
+import ir.IRFunction;
+import ir.IRInstruction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+public class DeadStoreElimination {
+    //Dead store elimination from liveness: a scalar def whose variable is not live right after it is dead,
+        //even when that variable is read somewhere else (e.g. the value is overwritten on every path before any use)
+    //Each block is walked backwards from its live-out, a removed def contributes no uses, so chains of dead
+        //defs in a block go in one walk. Removing defs can only shrink liveness, so we redo it until nothing changes
+    //CALLR is only removed when the CallGraph summary says the call does nothing else (no io, no writes, terminates),
+        //arrays are memory and are not handled here
+
+    // returns how many instrucs were removed from the function
+    public static int run(IRFunction function) {
+        return run(function, null);
+    }
+
+    public static int run(IRFunction function, CallGraph calls) {
+        int total = 0;
+        int removed = sweep(function, calls);
+        while (removed > 0) {
+            total += removed;
+            removed = sweep(function, calls);
+        }
+        return total;
+    }
+
+    private static int sweep(IRFunction function, CallGraph calls) {
+        if (function.instructions.isEmpty()) {
+            return 0;
+        }
+        IRcfg cfg = new IRcfg(function);
+        Liveness liveness = new Liveness(function);
+        liveness.solve(cfg);
+
+        Set<IRInstruction> dead = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (IRBlock block : cfg.blocks) {
+            IRBitVector live = new IRBitVector(liveness.vars.size());
+            live.copyFrom(liveness.out(block));
+            for (int i = block.nodes.size() - 1; i >= 0; i--) {
+                IRInstruction instruction = block.nodes.get(i).instruction;
+                if (SSAForm.isScalarDef(instruction) && (instruction.opCode != IRInstruction.OpCode.CALLR || (calls != null && calls.isRemovable(instruction)))
+                        && !live.get(liveness.index(instruction, 0))) {
+                    dead.add(instruction);
+                    continue;
+                }
+                liveness.step(instruction, live);
+            }
+        }
+        if (dead.isEmpty()) {
+            return 0;
+        }
+
+        List<IRInstruction> result = new ArrayList<>();
+        for (IRInstruction instruction : function.instructions) {
+            if (!dead.contains(instruction)) {
+                result.add(instruction);
+            }
+        }
+        function.instructions = result;
+        return dead.size();
+    }
+}
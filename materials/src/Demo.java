@@ -16,8 +16,61 @@ public class Demo {
 
         /* IRProgram -> IRFunction -> (IRVariableOperand and IRInstruction) -> [IRInstruction] ==> (OpCode, IROperand) */
         IRProgram program = irReader.parseIRFile(args[0]); //Work on this object
+        // optional 3rd arg: "--simple-dce" only runs the reaching definitions mark/sweep (every branch is critical there)
+        boolean aggressiveDCE = !(args.length > 2 && args[2].equals("--simple-dce"));
+        Map<String, Integer> assignsRemoved = new LinkedHashMap<>(); // function name -> ASSIGNs the optimizer got rid of
 
         for (IRFunction function : program.functions) {
+            assignsRemoved.put(function.name, countAssigns(function));
+            //Tail recursion elimination: self-calls in tail position jump back to the entry (also lets the inliner take them)
+            TailRecursionElimination.run(function);
+        }
+
+        //Inlining first (over the whole program), so the passes below also optimize the inlined bodies for their call sites
+        Inliner.run(program);
+        //Functions main can no longer get to (the inliner took their last calls) are not worth optimizing
+        DeadFunctionElimination.run(program);
+        assignsRemoved.keySet().retainAll(program.functions.stream().map(function -> function.name).toList());
+        //What every call can do (io, array params written, termination), so the passes below may drop or move calls
+        CallGraph calls = new CallGraph(program);
+
+        for (IRFunction function : program.functions) {
+            int assigns_before = assignsRemoved.get(function.name);
+
+            //0. Sparse conditional constant propagation: fold constants and branches, drop the code that can never run
+            ConstantPropagation.run(function);
+
+            //0b. Loop invariant code motion: computations that give the same result every iteration move to a preheader
+            LoopInvariantCodeMotion.run(function, calls);
+
+            //0c. Strength reduction: i * k in a loop is kept up to date with adds, exit tests on i move to i * k when they can
+            StrengthReduction.run(function);
+
+            //0d. Loop rotation: top-tested loops become guarded bottom-tested loops, which saves the goto of every iteration
+            LoopRotation.run(function);
+
+            //0e. Loop unrolling of the counted loops rotation left behind (full unroll when the trip count is known)
+            //0f. Constant propagation again: the guards rotation copied and the unrolled code often test/compute constants
+            if (LoopUnrolling.run(function) > 0) {
+                ConstantPropagation.run(function);
+            }
+
+            //0g. Scalar replacement: small local arrays only used at constant indexes (unrolling makes many) become scalars,
+                //then constant propagation again so the values that went through them get folded
+            if (ScalarReplacement.run(function) > 0) {
+                ConstantPropagation.run(function);
+            }
+
+            //0h. Lazy code motion: computations done on some paths into a join (or every iteration of a bottom-tested loop)
+                //move to the edges that lack them, so no path computes them twice
+            LazyCodeMotion.run(function);
+
+            //0i. Copy propagation: read the source of a copy instead of its target, the DCE passes below remove the dead copies
+            CopyPropagation.run(function);
+
+            //0j. Dead array stores: stores/fills into local arrays that are never read again (markAlg keeps every ARRAY_STORE)
+            DeadArrayStoreElimination.run(function, calls);
+
             IRcfg cfg = new IRcfg(function); // we create the CFG for this function
             // now we want to run the optimizer
             /* Reaching Definitions Analysis 
@@ -26,29 +79,53 @@ public class Demo {
                     THEN we want to do a SECOND PASS:
                         - where we calculate the IN and OUT sets UNTIL we reach a fixed point (IN/OUT sets are equal after 2 iterations) */
             
-            //1. Calculate GEN/KILL Sets and Initialize OUT set = GEN
-            calculateSets(cfg);
-
-            //2. Calculate IN/OUT Sets
+            //1+2. Calculate GEN/KILL Sets and then the IN/OUT Sets (per block), then the use-def chains from them
             fixedPointAlg(cfg);
+            cfg.buildChains();
 
-            /* USED FOR TESTING AND CHECKING SETS for the nodes after calculating them
-            for (IRNode node : cfg.nodes) {
-                System.out.println("GEN[node]: " + node.GEN);
-                System.out.println("KILL[node]: " + node.KILL);
-                System.out.println("IN[node]: " + node.IN);
-                System.out.println("OUT[node]: " + node.OUT);
+            /* USED FOR TESTING AND CHECKING SETS for the blocks after calculating them
+            for (IRBlock block : cfg.blocks) {
+                System.out.println("GEN[block]: " + block.GEN);
+                System.out.println("KILL[block]: " + block.KILL);
+                System.out.println("IN[block]: " + block.IN);
+                System.out.println("OUT[block]: " + block.OUT);
             }
             */
 
             //3. Mark Algorithm
                 //a. mark critical instructions
-            markAlg(cfg);
+            markAlg(cfg, calls);
 
             //4. Sweep Algorithm and get the critical instructions and update the functions instructions list
             sweepAlg(cfg, function);
+
+            //5. Dead store elimination: defs that are not live right after them (liveness, not reaching definitions)
+            DeadStoreElimination.run(function, calls);
+
+            //5b. Partial dead code elimination: defs that are only live down one side of a branch sink onto that edge
+            PartialDeadCodeElimination.run(function);
+
+            //6. Aggressive DCE: branches are only kept if something marked is control dependent on them
+            if (aggressiveDCE) {
+                AggressiveDCE.run(function, calls);
+            }
+
+            //7. Global value numbering: a computation that was already done on the same values becomes a copy
+                //(after DCE, so a dead computation never gets picked as the earlier one), then the copies get propagated
+            if (GlobalValueNumbering.run(function, calls) > 0) {
+                CopyPropagation.run(function);
+                DeadStoreElimination.run(function, calls);
+            }
+
+            //8. Preheaders that ended up empty: their labels go (nothing jumps to them, they only fall into the loop)
+            LoopForest.removeEmptyPreheaders(function);
+            assignsRemoved.put(function.name, assigns_before - countAssigns(function));
         }
 
+        // DCE may have dropped the last calls to some functions
+        DeadFunctionElimination.run(program);
+        assignsRemoved.keySet().retainAll(program.functions.stream().map(function -> function.name).toList());
+
         // Print the IR to another file
         IRPrinter filePrinter = new IRPrinter(new PrintStream(args[1]));
         filePrinter.printProgram(program);
@@ -109,74 +186,57 @@ public class Demo {
                 System.out.println(function.name + ": " + String.join(", ", vars));
         }
         System.out.println();
-    }
 
-    public static void calculateSets(IRcfg cfg) {
-        for (IRNode node : cfg.nodes) {
-            if (node.defined_var == null) { // if not a defintion skip it
-                continue;
-            }
-            node.addToGen(node);
-            node.addToOut(node); //OUT = GEN
+        // Print how many ASSIGN instructions (mostly copies) were removed from each function
+        System.out.println("ASSIGN instructions removed:");
+        for (Map.Entry<String, Integer> entry : assignsRemoved.entrySet())
+            System.out.println(entry.getKey() + ": " + entry.getValue());
+        System.out.println();
 
+        // Print how much work every dataflow analysis did (summed over all functions)
+        System.out.println("Dataflow analyses:");
+        for (DataflowAnalysis.Stats stats : DataflowAnalysis.totals.values())
+            System.out.println(stats);
+        System.out.println();
+    }
 
-            for (IRNode nested_node : cfg.nodes) {
-                if (nested_node.defined_var == null) {
-                    continue;
-                }
-                // if they both define the same variable AND they are not the same node
-                if ((nested_node.defined_var.equals(node.defined_var)) && (!nested_node.equals(node))) {
-                    node.addToKill(nested_node);
-                }
+    public static int countAssigns(IRFunction function) {
+        int count = 0;
+        for (IRInstruction instruction : function.instructions) {
+            if (instruction.opCode == IRInstruction.OpCode.ASSIGN) {
+                count++;
             }
         }
-        //after: GEN, KILL are intialized, IN = null/empty, OUT = GEN
+        return count;
     }
 
-    public static void fixedPointAlg(IRcfg cfg) {
-        /* Continuously traverse CFG until IN/OUT do NOT change ==> reached the Fixed Point 
+    public static DataflowAnalysis.Stats fixedPointAlg(IRcfg cfg) {
+        /* Keep visiting blocks until IN/OUT do NOT change ==> reached the Fixed Point 
             NOTE: IN[B] = OUT[P] for P in B.predecessors 
-                  OUT[B] = GEN[B] U (IN[B] - KILL[B]) */
-        boolean changed = true;
-        while (changed) {
-            changed = false;
-            for (IRNode node : cfg.nodes) {
-                //CALCULATE IN SET: loop through IMMEDIATE predecessor(s),find "their" OUT and "union" all of it together
-                Set<IRNode> new_IN = new HashSet<>();
-                for (IRNode pre_node : node.predecessors) {
-                    for (IRNode out_elem : pre_node.OUT) {
-                        new_IN.add(out_elem);
-                    }
-                }
-                node.IN = new_IN;
-
-                //Following the instructions in Lecture 3 Slide 32, lets just directly set OUT set
-                Set<IRNode> new_OUT = new HashSet<>(node.GEN);
-                Set<IRNode> in_minus_kill = new HashSet<>();
-                for (IRNode in_node : node.IN) {
-                    in_minus_kill.add(in_node);
-                }
-                for (IRNode kill_node : node.KILL) {
-                    in_minus_kill.remove(kill_node);
-                }
-                for (IRNode imk_node : in_minus_kill) {
-                    new_OUT.add(imk_node);
-                }
-
-                if (!node.OUT.equals(new_OUT)) {
-                    changed = true;
-                    node.OUT = new_OUT;
-                }
-            }
-        }
+                  OUT[B] = GEN[B] U (IN[B] - KILL[B])
+            Reaching definitions is just one bit vector problem on the dataflow framework (see ReachingDefinitions/DataflowAnalysis),
+            which gets the block GEN/KILL sets from IRcfg.calculateBlockSets (KILL comes from the per variable table defsOfVar)
+            and leaves the result in IN/OUT of every block */
+        return new ReachingDefinitions().solve(cfg);
     }
 
     public static void markAlg(IRcfg cfg) {
+        markAlg(cfg, null);
+    }
+
+    // calls: if given, calls the summaries say can go are not critical (a CALLR is then only kept when its result is used)
+    public static void markAlg(IRcfg cfg, CallGraph calls) {
         Queue<IRNode> worklist = new LinkedList<>();
         for (IRNode node : cfg.nodes) {
             node.is_marked = false;
             switch(node.instruction.opCode) {
-                case GOTO, BREQ, BRNEQ, BRLT, BRGT, BRGEQ, CALL, CALLR, RETURN, ARRAY_STORE -> {
+                case CALL, CALLR -> {
+                    if (calls == null || !calls.isRemovable(node.instruction)) {
+                        node.is_marked = true;
+                        worklist.add(node);
+                    }
+                }
+                case GOTO, BREQ, BRNEQ, BRLT, BRGT, BRGEQ, RETURN, ARRAY_STORE -> {
                     node.is_marked = true;
                     worklist.add(node);
                 }
@@ -186,17 +246,15 @@ public class Demo {
             }
         }
         // With worklist created, let's implement part 2 of the Mark Algorithm
+            //the use-def chains give exactly the defs that reach each use, so there is no scanning of IN sets here
         IRNode worklist_node = worklist.poll();
         while (worklist_node != null) {
-            List<String> used_vars = worklist_node.used_vars;
-            
-            for (String used_var : used_vars) {
-                for (IRNode maybe_important : worklist_node.IN) {
-                    if (maybe_important.defined_var.equals(used_var)) {
-                        if (!maybe_important.is_marked) {
-                            maybe_important.is_marked = true;
-                            worklist.add(maybe_important);
-                        }
+            for (int use = cfg.useStart[worklist_node.index]; use < cfg.useStart[worklist_node.index + 1]; use++) {
+                for (int k = cfg.udStart[use]; k < cfg.udStart[use + 1]; k++) {
+                    IRNode maybe_important = cfg.definitions.get(cfg.udDefs[k]);
+                    if (!maybe_important.is_marked) {
+                        maybe_important.is_marked = true;
+                        worklist.add(maybe_important);
                     }
                 }
             }
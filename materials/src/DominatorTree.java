@@ -0,0 +1,213 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class DominatorTree {
+    //Dominator tree + dominance frontiers over the blocks of an IRcfg (Cooper, Harvey & Kennedy's iterative algorithm)
+    //Nodes are block indexes. For post-dominators the graph is reversed and an extra node (index blocks.size()) is the
+        //virtual exit that every block without successors flows into
+    //Nodes that cannot be reached from the root have idom == -1 and are not part of the tree
+    public int size; // number of nodes (blocks, + 1 for the virtual exit when post-dominators)
+    public int root;
+    public int[] idom;
+    public List<List<Integer>> children = new ArrayList<>();
+    public List<List<Integer>> frontier = new ArrayList<>(); // dominance frontier (post-dominance frontier == control dependence when reversed)
+    public int[] preorder; // nodes of the tree in preorder (parents before children)
+    private int[] pre_num; // preorder/postorder numbering for O(1) dominates()
+    private int[] post_num;
+
+    // Dominators of a function, rooted at the entry block
+    public DominatorTree(IRcfg cfg) {
+        int n = cfg.blocks.size();
+        int[][] succ = new int[n][];
+        int[][] pred = new int[n][];
+        for (IRBlock block : cfg.blocks) {
+            succ[block.index] = indexes(block.successors);
+            pred[block.index] = indexes(block.predecessors);
+        }
+        build(n, 0, succ, pred);
+    }
+
+    private DominatorTree() {}
+
+    // Post-dominators of a function: dominators of the reversed CFG, rooted at the virtual exit
+    public static DominatorTree postDominators(IRcfg cfg) {
+        int n = cfg.blocks.size();
+        List<Integer> exits = new ArrayList<>();
+        int[][] succ = new int[n + 1][];
+        int[][] pred = new int[n + 1][];
+        for (IRBlock block : cfg.blocks) {
+            succ[block.index] = indexes(block.predecessors);
+            if (block.successors.isEmpty()) {
+                exits.add(block.index);
+                pred[block.index] = new int[]{n};
+            } else {
+                pred[block.index] = indexes(block.successors);
+            }
+        }
+        succ[n] = exits.stream().mapToInt(Integer::intValue).toArray();
+        pred[n] = new int[0];
+        DominatorTree tree = new DominatorTree();
+        tree.build(n + 1, n, succ, pred);
+        return tree;
+    }
+
+    private static int[] indexes(List<IRBlock> blocks) {
+        int[] result = new int[blocks.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = blocks.get(i).index;
+        }
+        return result;
+    }
+
+    private void build(int n, int root, int[][] succ, int[][] pred) {
+        this.size = n;
+        this.root = root;
+        this.idom = new int[n];
+        this.pre_num = new int[n];
+        this.post_num = new int[n];
+
+        // reverse postorder from the root (iterative dfs)
+        int[] rpo = new int[n];
+        int[] rpo_num = new int[n];
+        Arrays.fill(rpo_num, -1);
+        int count = 0;
+        {
+            int[] postorder = new int[n];
+            boolean[] visited = new boolean[n];
+            int[] next_succ = new int[n];
+            int[] stack = new int[n];
+            int top = 0;
+            stack[top++] = root;
+            visited[root] = true;
+            while (top > 0) {
+                int node = stack[top - 1];
+                if (next_succ[node] < succ[node].length) {
+                    int s = succ[node][next_succ[node]++];
+                    if (!visited[s]) {
+                        visited[s] = true;
+                        stack[top++] = s;
+                    }
+                } else {
+                    postorder[count++] = node;
+                    top--;
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                rpo[i] = postorder[count - 1 - i];
+                rpo_num[rpo[i]] = i;
+            }
+        }
+
+        Arrays.fill(this.idom, -1);
+        this.idom[root] = root;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 1; i < count; i++) {
+                int b = rpo[i];
+                int new_idom = -1;
+                for (int p : pred[b]) {
+                    if (this.idom[p] == -1) { // not processed yet (or unreachable)
+                        continue;
+                    }
+                    new_idom = (new_idom == -1) ? p : intersect(p, new_idom, rpo_num);
+                }
+                if (this.idom[b] != new_idom) {
+                    this.idom[b] = new_idom;
+                    changed = true;
+                }
+            }
+        }
+
+        for (int i = 0; i < n; i++) {
+            this.children.add(new ArrayList<>());
+            this.frontier.add(new ArrayList<>());
+        }
+        for (int i = 1; i < count; i++) {
+            int b = rpo[i];
+            this.children.get(this.idom[b]).add(b);
+        }
+
+        // dominance frontiers: walk up from each predecessor of a join until we hit its idom
+            //the root is a join as soon as it has a predecessor (the other edge comes in from outside the function), its
+            //walk goes up to and including the root itself
+        for (int i = 0; i < count; i++) {
+            int b = rpo[i];
+            if (pred[b].length < ((b == root) ? 1 : 2)) {
+                continue;
+            }
+            int stop = (b == root) ? -1 : this.idom[b];
+            for (int p : pred[b]) {
+                if (this.idom[p] == -1) {
+                    continue;
+                }
+                int runner = p;
+                while (runner != stop) {
+                    List<Integer> df = this.frontier.get(runner);
+                    if (df.isEmpty() || df.get(df.size() - 1) != b) {
+                        df.add(b);
+                    }
+                    if (runner == root) {
+                        break;
+                    }
+                    runner = this.idom[runner];
+                }
+            }
+        }
+
+        // preorder + pre/post numbers of the tree
+        this.preorder = new int[count];
+        Arrays.fill(this.pre_num, -1);
+        int[] stack = new int[n];
+        int[] next_child = new int[n];
+        int top = 0;
+        int pre = 0;
+        int post = 0;
+        stack[top++] = root;
+        this.pre_num[root] = pre;
+        this.preorder[pre++] = root;
+        while (top > 0) {
+            int node = stack[top - 1];
+            List<Integer> kids = this.children.get(node);
+            if (next_child[node] < kids.size()) {
+                int child = kids.get(next_child[node]++);
+                this.pre_num[child] = pre;
+                this.preorder[pre++] = child;
+                stack[top++] = child;
+            } else {
+                this.post_num[node] = post++;
+                top--;
+            }
+        }
+    }
+
+    private int intersect(int b1, int b2, int[] rpo_num) {
+        while (b1 != b2) {
+            while (rpo_num[b1] > rpo_num[b2]) {
+                b1 = this.idom[b1];
+            }
+            while (rpo_num[b2] > rpo_num[b1]) {
+                b2 = this.idom[b2];
+            }
+        }
+        return b1;
+    }
+
+    public boolean isReachable(int node) {
+        return this.idom[node] != -1;
+    }
+
+    // true if a dominates b (every node dominates itself)
+    public boolean dominates(int a, int b) {
+        if (!isReachable(a) || !isReachable(b)) {
+            return false;
+        }
+        return this.pre_num[a] <= this.pre_num[b] && this.post_num[a] >= this.post_num[b];
+    }
+
+    // immediate dominator, -1 for the root and for unreachable nodes
+    public int parent(int node) {
+        return (node == this.root) ? -1 : this.idom[node];
+    }
+}
@@ -0,0 +1,321 @@
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.datatype.IRIntType;
+import ir.operand.IRConstantOperand;
+import ir.operand.IROperand;
+import ir.operand.IRVariableOperand;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class GlobalValueNumbering {
+    //Dominator-based global value numbering / CSE on top of SSAForm
+        //blocks are numbered in dominator tree preorder, an expression is hashed as (opcode, value number, value number)
+        //packed into a long (LongIntMap), the table keeps the first SSA value that computed it
+        //a hit only counts if that value's block dominates the current one, so nothing has to be popped when leaving a subtree
+    //Copies pass their value number on, commutative operands are sorted, constants are numbered by (type, bits)
+    //ARRAY_LOAD is keyed on the array and the memory epoch of its alias class (ArrayAliasAnalysis)
+        //an ARRAY_STORE or array fill bumps the epoch of the class it writes, a CALL/CALLR those of the arrays it gets passed
+        //a block only inherits its dominator's epochs if that dominator is its only predecessor
+        //with a CallGraph only the arrays the callee may write are bumped, and a CALLR of a pure function
+        //(no effects, reads no memory) is keyed on the function and its args like any other expression
+    //An ARRAY_STORE also leaves its value behind for a later load of the same array and index (store to load forwarding)
+    //Rewrite works on the original instrucs: a redundant computation becomes a copy of the earlier result
+        //if the earlier variable still holds it there (its def is the only one reaching), otherwise the earlier result
+        //is saved in a new temporary right where it is computed
+
+    private CallGraph calls;
+    private ArrayAliasAnalysis aliases;
+    private SSAForm ssa;
+    private IRcfg cfg;
+    private int[] vn; // by value id
+    private int next_vn;
+    private LongIntMap expressions = new LongIntMap(); // packed expression -> id of the first value that computed it
+    private LongIntMap constants = new LongIntMap(); // (float?, bits) -> value number
+    private LongIntMap memories = new LongIntMap(); // (array number, epoch) -> value number of that memory state
+    private Map<String, Integer> arrays = new HashMap<>();
+    private Map<String, Integer> functions = new HashMap<>(); // called function -> its value number
+    private LongIntMap tuples = new LongIntMap(); // (value number, value number) -> value number of the pair, for call args
+    private LongIntMap stored_constants = new LongIntMap(); // load expression right after a store -> index in constant_list
+    private List<IRConstantOperand> constant_list = new ArrayList<>();
+    private Map<IRInstruction, SSAForm.Value> leader_of = new IdentityHashMap<>(); // redundant renamed instruc -> earlier value
+    private Map<IRInstruction, IRConstantOperand> forwarded = new IdentityHashMap<>(); // renamed load -> the constant stored there
+
+    // returns how many computations were replaced
+    public static int run(IRFunction function) {
+        return run(function, null);
+    }
+
+    public static int run(IRFunction function, CallGraph calls) {
+        if (function.instructions.isEmpty()) {
+            return 0;
+        }
+        GlobalValueNumbering pass = new GlobalValueNumbering();
+        pass.calls = calls;
+        pass.aliases = new ArrayAliasAnalysis(function);
+        return pass.rewrite(function);
+    }
+
+    private void number() {
+        int num_values = this.ssa.values.size();
+        this.vn = new int[num_values];
+        for (int i = 0; i < num_values; i++) {
+            this.vn[i] = i;
+        }
+        this.next_vn = num_values;
+
+        DominatorTree dom = this.ssa.dom;
+        int[][] epochs_out = new int[this.cfg.blocks.size()][];
+        int next_epoch = 0;
+        for (int b : dom.preorder) {
+            IRBlock block = this.cfg.blocks.get(b);
+            int parent = dom.parent(b);
+            int[] epochs;
+            if (block.predecessors.size() == 1 && block.predecessors.get(0).index == parent) {
+                epochs = epochs_out[parent].clone();
+            } else {
+                epochs = new int[this.aliases.numClasses()];
+                Arrays.fill(epochs, next_epoch++);
+            }
+
+            for (SSAForm.Phi phi : this.ssa.phis.get(b)) {
+                int same = -1;
+                for (SSAForm.Value arg : phi.args) {
+                    if (arg == null) { // from a block that is never reached
+                        continue;
+                    }
+                    if (same == -1) {
+                        same = this.vn[arg.id];
+                    } else if (same != this.vn[arg.id]) {
+                        same = -2;
+                    }
+                }
+                if (same >= 0) {
+                    this.vn[phi.target.id] = same;
+                }
+            }
+
+            for (IRInstruction renamed : this.ssa.code.get(b)) {
+                switch (renamed.opCode) {
+                    case ASSIGN -> {
+                        if (renamed.operands.length == 2) {
+                            this.vn[this.ssa.defOf.get(renamed).id] = number(renamed.operands[1]);
+                        } else {
+                            epochs[this.aliases.classOf(renamed.operands[0])] = next_epoch++;
+                        }
+                    }
+                    case ADD, MULT, AND, OR -> { // commutative
+                        int x = number(renamed.operands[1]);
+                        int y = number(renamed.operands[2]);
+                        lookup(renamed, pack(renamed.opCode, Math.min(x, y), Math.max(x, y)), block);
+                    }
+                    case SUB, DIV -> {
+                        lookup(renamed, pack(renamed.opCode, number(renamed.operands[1]), number(renamed.operands[2])), block);
+                    }
+                    case ARRAY_LOAD -> {
+                        long key = pack(renamed.opCode, memory(renamed.operands[1], epochs), number(renamed.operands[2]));
+                        int stored = this.stored_constants.get(key, -1);
+                        if (stored != -1) {
+                            this.vn[this.ssa.defOf.get(renamed).id] = number(this.constant_list.get(stored));
+                            this.forwarded.put(renamed, this.constant_list.get(stored));
+                        } else {
+                            lookup(renamed, key, block);
+                        }
+                    }
+                    case CALLR -> {
+                        if (this.calls != null && this.calls.isPure(renamed)) {
+                            int args = this.functions.computeIfAbsent(renamed.operands[1].toString(), name -> this.next_vn++);
+                            for (int i = 2; i < renamed.operands.length; i++) {
+                                args = tuple(args, number(renamed.operands[i]));
+                            }
+                            lookup(renamed, pack(renamed.opCode, args, 0), block);
+                        } else {
+                            for (int c : this.aliases.writtenBy(renamed, this.calls)) {
+                                epochs[c] = next_epoch++;
+                            }
+                        }
+                    }
+                    case CALL -> {
+                        for (int c : this.aliases.writtenBy(renamed, this.calls)) {
+                            epochs[c] = next_epoch++;
+                        }
+                    }
+                    case ARRAY_STORE -> {
+                        epochs[this.aliases.classOf(renamed.operands[1])] = next_epoch++;
+                        forward(pack(IRInstruction.OpCode.ARRAY_LOAD, memory(renamed.operands[1], epochs), number(renamed.operands[2])),
+                                renamed.operands[0]);
+                    }
+                    default -> {
+                        break;
+                    }
+                }
+            }
+            epochs_out[b] = epochs;
+        }
+    }
+
+    private static long pack(IRInstruction.OpCode opCode, int x, int y) {
+        return ((long) opCode.ordinal() << 58) | ((long) x << 29) | y;
+    }
+
+    private int tuple(int x, int y) {
+        long key = ((long) x << 32) | y;
+        int number = this.tuples.get(key, -1);
+        if (number == -1) {
+            number = this.next_vn++;
+            this.tuples.put(key, number);
+        }
+        return number;
+    }
+
+    // value number of a (renamed) scalar operand
+    private int number(IROperand operand) {
+        if (operand instanceof IRConstantOperand) {
+            IRConstantOperand constant = (IRConstantOperand) operand;
+            long key = (constant.type == IRIntType.get())
+                    ? Integer.parseInt(constant.getValueString()) & 0xffffffffL
+                    : (1L << 32) | (Float.floatToIntBits(Float.parseFloat(constant.getValueString())) & 0xffffffffL);
+            int number = this.constants.get(key, -1);
+            if (number == -1) {
+                number = this.next_vn++;
+                this.constants.put(key, number);
+            }
+            return number;
+        }
+        return this.vn[this.ssa.valueOf(operand).id];
+    }
+
+    private int array(IROperand operand) {
+        return this.arrays.computeIfAbsent(operand.toString(), name -> this.arrays.size());
+    }
+
+    // value number of what array currently holds
+    private int memory(IROperand array, int[] epochs) {
+        long state = ((long) array(array) << 32) | epochs[this.aliases.classOf(array)];
+        int memory = this.memories.get(state, -1);
+        if (memory == -1) {
+            memory = this.next_vn++;
+            this.memories.put(state, memory);
+        }
+        return memory;
+    }
+
+    // a load of key (the array right after a store, at the stored index) gets the stored value
+        //a stored constant becomes the load's operand, a stored value with a def becomes its leader like any earlier load,
+        //values of phis and entry values have no instruc that could save them, loads of those stay
+        //a stored value that is itself redundant is replaced by rewrite(), so its leader (or forwarded constant) is used instead
+    private void forward(long key, IROperand stored) {
+        if (stored instanceof IRVariableOperand) {
+            SSAForm.Value value = this.ssa.valueOf(stored);
+            if (value.def == null) {
+                return;
+            }
+            if (this.forwarded.containsKey(value.def)) {
+                stored = this.forwarded.get(value.def);
+            } else {
+                SSAForm.Value leader = this.leader_of.getOrDefault(value.def, value);
+                this.expressions.put(key, leader.id);
+                return;
+            }
+        }
+        this.stored_constants.put(key, this.constant_list.size());
+        this.constant_list.add((IRConstantOperand) stored);
+    }
+
+    private void lookup(IRInstruction renamed, long key, IRBlock block) {
+        SSAForm.Value value = this.ssa.defOf.get(renamed);
+        int leader = this.expressions.get(key, -1);
+        if (leader != -1 && this.ssa.dom.dominates(this.ssa.values.get(leader).block.index, block.index)) {
+            this.vn[value.id] = this.vn[leader];
+            this.leader_of.put(renamed, this.ssa.values.get(leader));
+        } else {
+            this.expressions.put(key, value.id);
+        }
+    }
+
+    private int rewrite(IRFunction function) {
+        this.ssa = new SSAForm(function);
+        this.cfg = this.ssa.cfg;
+        if (this.cfg.blocks.isEmpty()) {
+            return 0;
+        }
+        number();
+        if (this.leader_of.isEmpty() && this.forwarded.isEmpty()) {
+            return 0;
+        }
+
+        // which defs reach each (original) instruc, to know if the earlier variable still holds the value
+        new ReachingDefinitions().solve(this.cfg);
+        this.cfg.deriveNodeSets();
+        Map<IRInstruction, IRNode> node_of = new IdentityHashMap<>();
+        for (IRNode node : this.cfg.nodes) {
+            node_of.put(node.instruction, node);
+        }
+
+        IRBuilder builder = new IRBuilder(function);
+        Map<IRInstruction, IRInstruction> replacement = new IdentityHashMap<>(); // null = just remove it
+        Map<IRInstruction, IRInstruction> save_after = new IdentityHashMap<>(); // earlier computation -> copy out of its temp
+        Map<IRInstruction, IRVariableOperand> temp_of = new IdentityHashMap<>();
+        for (Map.Entry<IRInstruction, SSAForm.Value> entry : this.leader_of.entrySet()) {
+            IRInstruction instruction = this.ssa.original.get(entry.getKey());
+            IRInstruction earlier = this.ssa.original.get(entry.getValue().def);
+            IRVariableOperand target = (IRVariableOperand) instruction.operands[0];
+            if (this.leader_of.containsKey(entry.getValue().def) || this.forwarded.containsKey(entry.getValue().def)) {
+                continue; // the earlier instruc is replaced below, a temp saved after it would never be set
+            }
+
+            IRVariableOperand holder = temp_of.get(earlier);
+            if (holder == null) {
+                IRNode def = node_of.get(earlier);
+                IRBitVector reaching = new IRBitVector(node_of.get(instruction).IN);
+                reaching.and(this.cfg.defsOfVar.get(def.defined_var));
+                if (reaching.cardinality() == 1 && reaching.get(def.def_index)) {
+                    holder = (IRVariableOperand) earlier.operands[0];
+                } else {
+                    IRVariableOperand var = (IRVariableOperand) earlier.operands[0];
+                    holder = builder.newVariable("gvn", var.type);
+                    temp_of.put(earlier, holder);
+                    save_after.put(earlier, builder.newInstruction(IRInstruction.OpCode.ASSIGN));
+                    IRInstruction save = save_after.get(earlier);
+                    save.operands = new IROperand[]{IRBuilder.variable(var, save), IRBuilder.variable(holder, save)};
+                    earlier.operands[0] = IRBuilder.variable(holder, earlier);
+                }
+            }
+            if (holder.getName().equals(target.getName())) {
+                replacement.put(instruction, null);
+            } else {
+                IRInstruction copy = builder.newInstruction(IRInstruction.OpCode.ASSIGN);
+                copy.operands = new IROperand[]{IRBuilder.variable(target, copy), IRBuilder.variable(holder, copy)};
+                replacement.put(instruction, copy);
+            }
+        }
+
+        for (Map.Entry<IRInstruction, IRConstantOperand> entry : this.forwarded.entrySet()) {
+            IRInstruction instruction = this.ssa.original.get(entry.getKey());
+            IRInstruction copy = builder.newInstruction(IRInstruction.OpCode.ASSIGN);
+            copy.operands = new IROperand[]{IRBuilder.variable((IRVariableOperand) instruction.operands[0], copy),
+                    IRBuilder.copyOperand(entry.getValue(), copy)};
+            replacement.put(instruction, copy);
+        }
+
+        List<IRInstruction> result = new ArrayList<>();
+        for (IRInstruction instruction : function.instructions) {
+            if (replacement.containsKey(instruction)) {
+                if (replacement.get(instruction) != null) {
+                    result.add(replacement.get(instruction));
+                }
+                continue;
+            }
+            result.add(instruction);
+            if (save_after.containsKey(instruction)) {
+                result.add(save_after.get(instruction));
+            }
+        }
+        function.instructions = result;
+        return replacement.size();
+    }
+}
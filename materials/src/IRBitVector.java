@@ -0,0 +1,147 @@
+import java.util.Arrays;
+
+public class IRBitVector {
+    //Fixed-size set of small ints (definition numbers) packed into long words
+        //all the set operations work a word at a time and write into "this", so nothing is allocated per iteration
+    public long[] words;
+    public int size;
+
+    public IRBitVector(int size) {
+        this.size = size;
+        this.words = new long[(size + 63) >>> 6];
+    }
+
+    public IRBitVector(IRBitVector other) {
+        this.size = other.size;
+        this.words = other.words.clone();
+    }
+
+    public void set(int bit) {
+        words[bit >>> 6] |= 1L << bit;
+    }
+
+    public void clear(int bit) {
+        words[bit >>> 6] &= ~(1L << bit);
+    }
+
+    public boolean get(int bit) {
+        return (words[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    public void clearAll() {
+        Arrays.fill(words, 0L);
+    }
+
+    public void setAll() {
+        Arrays.fill(words, -1L);
+        if ((size & 63) != 0) { // keep the bits past size clear so equals/cardinality still work
+            words[words.length - 1] = (1L << size) - 1;
+        }
+    }
+
+    public boolean isEmpty() {
+        for (long word : words) {
+            if (word != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int cardinality() {
+        int count = 0;
+        for (long word : words) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    // returns the first set bit at or after from, or -1 if there is none (same contract as java.util.BitSet)
+    public int nextSetBit(int from) {
+        if (from >= size) {
+            return -1;
+        }
+        int i = from >>> 6;
+        long word = words[i] & (-1L << from);
+        while (true) {
+            if (word != 0) {
+                return (i << 6) + Long.numberOfTrailingZeros(word);
+            }
+            if (++i == words.length) {
+                return -1;
+            }
+            word = words[i];
+        }
+    }
+
+    public void copyFrom(IRBitVector other) {
+        System.arraycopy(other.words, 0, this.words, 0, words.length);
+    }
+
+    // this = this U other, returns true if this changed
+    public boolean or(IRBitVector other) {
+        boolean changed = false;
+        for (int i = 0; i < words.length; i++) {
+            long old_word = words[i];
+            long new_word = old_word | other.words[i];
+            if (new_word != old_word) {
+                words[i] = new_word;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    // this = this - other
+    public void andNot(IRBitVector other) {
+        for (int i = 0; i < words.length; i++) {
+            words[i] &= ~other.words[i];
+        }
+    }
+
+    // this = this & other
+    public void and(IRBitVector other) {
+        for (int i = 0; i < words.length; i++) {
+            words[i] &= other.words[i];
+        }
+    }
+
+    // this = gen U (in - kill), returns true if this changed (the reaching definitions transfer function)
+    public boolean transfer(IRBitVector gen, IRBitVector in, IRBitVector kill) {
+        boolean changed = false;
+        for (int i = 0; i < words.length; i++) {
+            long new_word = gen.words[i] | (in.words[i] & ~kill.words[i]);
+            if (new_word != words[i]) {
+                words[i] = new_word;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if ((o == null) || (getClass() != o.getClass())) {
+            return false;
+        }
+        return Arrays.equals(this.words, ((IRBitVector) o).words);
+    }
+
+    public int hashCode() {
+        return Arrays.hashCode(this.words);
+    }
+
+    // For testing purposes
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        for (int bit = nextSetBit(0); bit >= 0; bit = nextSetBit(bit + 1)) {
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+            sb.append(bit);
+        }
+        return sb.append("}").toString();
+    }
+}
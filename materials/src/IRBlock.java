@@ -0,0 +1,86 @@
+import ir.IRInstruction;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class IRBlock {
+    //A basic block: a straight-line run of nodes (instrucs) that is only entered at the top and only left at the bottom
+    //The block-level GEN/KILL are summaries of its nodes, so the fixed point only has to move sets between blocks
+    public int index; // position in IRcfg.blocks (source order)
+    public List<IRNode> nodes = new ArrayList<>();
+    public List<IRBlock> predecessors = new ArrayList<>();
+    public List<IRBlock> successors = new ArrayList<>();
+    public IRBitVector GEN;
+    public IRBitVector KILL;
+    public IRBitVector IN;
+    public IRBitVector OUT;
+
+    public IRBlock() {}
+
+    public IRBlock(int index) {
+        this.index = index;
+    }
+
+    public IRNode first() {
+        return this.nodes.get(0);
+    }
+
+    public IRNode last() {
+        return this.nodes.get(this.nodes.size() - 1);
+    }
+
+    // the last of the labels the block starts with (code put right after it only runs when the block is entered), null if none
+    public IRInstruction lastLabel() {
+        IRInstruction last = null;
+        for (IRNode node : this.nodes) {
+            if (node.instruction.opCode != IRInstruction.OpCode.LABEL) {
+                break;
+            }
+            last = node.instruction;
+        }
+        return last;
+    }
+
+    // Compose the node transfer functions in order:
+        //GEN[B] = defs that are still alive at the bottom of the block, KILL[B] = defsOfVar of everything the block (fully) defines
+    public void calculateSets(IRcfg cfg) {
+        int num_defs = cfg.definitions.size();
+        this.GEN = new IRBitVector(num_defs);
+        this.KILL = new IRBitVector(num_defs);
+        this.IN = new IRBitVector(num_defs);
+        for (IRNode node : this.nodes) {
+            if (node.def_index < 0) {
+                continue;
+            }
+            if (!node.partial_def) {
+                IRBitVector var_defs = cfg.defsOfVar.get(node.defined_var);
+                this.GEN.andNot(var_defs);
+                this.KILL.or(var_defs);
+            }
+            this.GEN.set(node.def_index);
+        }
+        this.OUT = new IRBitVector(this.GEN); //OUT = GEN
+    }
+
+    // Walk the block once from IN[B] to get the per-instruction IN/OUT sets
+        //a node's OUT is the same vector as the next node's IN, so only one vector per node is allocated
+    public void deriveNodeSets(IRcfg cfg) {
+        IRBitVector curr = new IRBitVector(this.IN);
+        for (IRNode node : this.nodes) {
+            node.IN = curr;
+            if (node.def_index >= 0) {
+                curr = new IRBitVector(curr);
+                if (!node.partial_def) {
+                    curr.andNot(cfg.defsOfVar.get(node.defined_var)); // the KILL of this node
+                }
+                curr.set(node.def_index); // the GEN of this node
+            }
+            node.OUT = curr;
+        }
+    }
+
+    // For testing purposes
+    public String toString() {
+        return "B" + this.index + this.nodes;
+    }
+}
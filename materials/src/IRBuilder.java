@@ -0,0 +1,179 @@
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.datatype.IRArrayType;
+import ir.datatype.IRFloatType;
+import ir.datatype.IRIntType;
+import ir.datatype.IRType;
+import ir.operand.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class IRBuilder {
+    //Helper for passes that create new instrucs/labels/variables in a function
+        //new instrucs get line numbers past the end of the function (IRcfg and IRNode.equals key nodes by irLineNumber)
+        //new labels/variables get names that are not used anywhere in the function yet
+    public IRFunction function;
+    private int next_line;
+    private Set<String> names = new HashSet<>();
+
+    public IRBuilder(IRFunction function) {
+        this.function = function;
+        int max_line = 0;
+        for (IRInstruction instruction : function.instructions) {
+            max_line = Math.max(max_line, instruction.irLineNumber);
+            if (instruction.opCode == IRInstruction.OpCode.LABEL) {
+                this.names.add(((IRLabelOperand) instruction.operands[0]).getName());
+            }
+        }
+        for (IRVariableOperand variable : function.parameters) {
+            this.names.add(variable.getName());
+        }
+        for (IRVariableOperand variable : function.variables) {
+            this.names.add(variable.getName());
+        }
+        this.next_line = max_line + 1;
+    }
+
+    public int newLineNumber() {
+        return this.next_line++;
+    }
+
+    // a name that starts with hint and is not a label/variable of this function yet
+    public String newName(String hint) {
+        String name = hint;
+        int suffix = 0;
+        while (this.names.contains(name)) {
+            name = hint + "_" + (suffix++);
+        }
+        this.names.add(name);
+        return name;
+    }
+
+    // declare a new (local) variable, the interpreter zero-initializes it like any other local
+    public IRVariableOperand newVariable(String hint, IRType type) {
+        IRVariableOperand variable = new IRVariableOperand(type, newName(hint), null);
+        this.function.variables.add(variable);
+        return variable;
+    }
+
+    public IRInstruction newLabel(String hint) {
+        IRInstruction label = new IRInstruction(IRInstruction.OpCode.LABEL, null, newLineNumber());
+        label.operands = new IROperand[]{new IRLabelOperand(newName(hint), label)};
+        return label;
+    }
+
+    public IRInstruction newInstruction(IRInstruction.OpCode opCode, IROperand... operands) {
+        return new IRInstruction(opCode, operands, newLineNumber());
+    }
+
+    // assign dest, value
+    public IRInstruction assign(IRVariableOperand dest, IROperand value) {
+        IRInstruction assign = newInstruction(IRInstruction.OpCode.ASSIGN);
+        assign.operands = new IROperand[]{IRBuilder.variable(dest, assign), IRBuilder.copyOperand(value, assign)};
+        return assign;
+    }
+
+    // set a local back to what the interpreter starts it at on every call: assign x, 0 or a fill of the whole array with 0
+    public IRInstruction zeroInit(IRVariableOperand variable) {
+        IRInstruction init = newInstruction(IRInstruction.OpCode.ASSIGN);
+        if (variable.type instanceof IRArrayType) {
+            IRArrayType array = (IRArrayType) variable.type;
+            init.operands = new IROperand[]{IRBuilder.variable(variable, init),
+                    new IRConstantOperand(IRIntType.get(), Integer.toString(array.getSize()), init), zero(array.getElementType(), init)};
+        } else {
+            init.operands = new IROperand[]{IRBuilder.variable(variable, init), zero(variable.type, init)};
+        }
+        return init;
+    }
+
+    // the locals of function whose zero a new activation can see: every used local array, and the used scalars that are
+        //live at the entry (read before any def on some path), the other locals are always set before they are read
+    public static List<IRVariableOperand> zeroedLocals(IRFunction function) {
+        Liveness liveness = new Liveness(function);
+        IRcfg cfg = new IRcfg(function);
+        liveness.solve(cfg);
+        IRBitVector live_in = liveness.in(cfg.blocks.get(0));
+        Set<String> skip = new HashSet<>(); // params and the locals already in the list
+        for (IRVariableOperand param : function.parameters) {
+            skip.add(param.getName());
+        }
+        Set<String> used = new HashSet<>();
+        for (IRInstruction instruction : function.instructions) {
+            for (IROperand operand : instruction.operands) {
+                if (operand instanceof IRVariableOperand) {
+                    used.add(operand.toString());
+                }
+            }
+        }
+        List<IRVariableOperand> result = new ArrayList<>();
+        for (IRVariableOperand variable : function.variables) {
+            if (!used.contains(variable.getName()) || !skip.add(variable.getName())) {
+                continue;
+            }
+            if (variable.type instanceof IRArrayType || live_in.get(liveness.varIndex.get(variable.getName()))) {
+                result.add(variable);
+            }
+        }
+        return result;
+    }
+
+    // copy of an instruction with fresh operand objects (operands are never shared between instrucs) and a new line number
+    public IRInstruction copy(IRInstruction instruction) {
+        IRInstruction result = new IRInstruction(instruction.opCode, null, newLineNumber());
+        result.operands = new IROperand[instruction.operands.length];
+        for (int i = 0; i < instruction.operands.length; i++) {
+            result.operands[i] = IRBuilder.copyOperand(instruction.operands[i], result);
+        }
+        return result;
+    }
+
+    // append an out of line block (that ends in a jump) after instructions, guarded so nothing falls off the old end into it
+    public void appendBlock(List<IRInstruction> instructions, List<IRInstruction> block) {
+        IRInstruction last = instructions.isEmpty() ? null : instructions.get(instructions.size() - 1);
+        IRInstruction end_label = null;
+        if (last == null || (last.opCode != IRInstruction.OpCode.GOTO && last.opCode != IRInstruction.OpCode.RETURN)) {
+            end_label = newLabel("end");
+            IRInstruction jump = newInstruction(IRInstruction.OpCode.GOTO);
+            jump.operands = new IROperand[]{new IRLabelOperand(((IRLabelOperand) end_label.operands[0]).getName(), jump)};
+            instructions.add(jump);
+        }
+        instructions.addAll(block);
+        if (end_label != null) {
+            instructions.add(end_label);
+        }
+    }
+
+    public static IROperand copyOperand(IROperand operand, IRInstruction parent) {
+        if (operand instanceof IRVariableOperand) {
+            IRVariableOperand variable = (IRVariableOperand) operand;
+            return new IRVariableOperand(variable.type, variable.getName(), parent);
+        }
+        if (operand instanceof IRConstantOperand) {
+            IRConstantOperand constant = (IRConstantOperand) operand;
+            return new IRConstantOperand(constant.type, constant.getValueString(), parent);
+        }
+        if (operand instanceof IRLabelOperand) {
+            return new IRLabelOperand(((IRLabelOperand) operand).getName(), parent);
+        }
+        return new IRFunctionOperand(((IRFunctionOperand) operand).getName(), parent);
+    }
+
+    public static IRVariableOperand variable(IRVariableOperand variable, IRInstruction parent) {
+        return new IRVariableOperand(variable.type, variable.getName(), parent);
+    }
+
+    public static IRConstantOperand zero(IRType type, IRInstruction parent) {
+        return new IRConstantOperand(type, (type == IRFloatType.get()) ? "0.0" : "0", parent);
+    }
+
+    // type of a variable or constant operand
+    public static IRType typeOf(IROperand operand) {
+        if (operand instanceof IRVariableOperand) {
+            return ((IRVariableOperand) operand).type;
+        }
+        return ((IRConstantOperand) operand).type;
+    }
+}
@@ -1,24 +1,24 @@
 import ir.IRInstruction;
 import ir.operand.IRVariableOperand;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
-import java.util.Set;
 import java.util.ArrayList;
 
 public class IRNode {
     //Each node is a list of instrucs and has predecessors/successors
-    //Every node/block also has its own GEN, KILL, etc sets
-        //these sets use HashSet, and use varName and lineNumber to ensure uniqueness
+    //Every node also has its own IN/OUT sets (bit vectors indexed by def_index, the definition numbering IRcfg assigns once per function)
+        //GEN is just def_index and KILL is IRcfg.defsOfVar of defined_var, so neither is stored per node
     public IRInstruction instruction;
+    public int index; // position in IRcfg.nodes
     public String defined_var = null;
+    public int def_index = -1; // -1 if this node is not a definition
+    public boolean partial_def = false; // array fills only write part of the array, so they do not kill other defs
     public List<String> used_vars = new ArrayList<>();
     public List<IRNode> predecessors = new ArrayList<>();
     public List<IRNode> successors = new ArrayList<>();
-    public Set<IRNode> GEN = new HashSet<>();
-    public Set<IRNode> KILL = new HashSet<>();
-    public Set<IRNode> IN = new HashSet<>();
-    public Set<IRNode> OUT = new HashSet<>();
+    public IRBlock block; // the basic block this node belongs to
+    public IRBitVector IN;
+    public IRBitVector OUT;
     public boolean is_marked = false;
 
 
@@ -36,6 +36,9 @@ public class IRNode {
                 break;
             }
         }
+        if (instruction.opCode == IRInstruction.OpCode.ASSIGN && instruction.operands.length > 2) {
+            this.partial_def = true;
+        }
         for (int i = 1; i < this.instruction.operands.length; i++) {
             if (instruction.operands[i] instanceof IRVariableOperand) {
                 used_vars.add(((IRVariableOperand) instruction.operands[i]).getName());
@@ -80,14 +83,4 @@ public class IRNode {
         }
         return "";
     }
-
-    public void addToGen(IRNode node) {
-        this.GEN.add(node);
-    }
-    public void addToKill(IRNode node) {
-        this.KILL.add(node);
-    }
-    public void addToOut(IRNode node) {
-        this.OUT.add(node);
-    }
 }
\ No newline at end of file
@@ -5,10 +5,27 @@ import java.util.List;
 import java.util.ArrayList;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
 
 public class IRcfg {
     //public IRNode entry_node; // the entry node for the CFG (i.e. head)
     public List<IRNode> nodes = new ArrayList<>(); // list of nodes in the graph (each are individual instrucs; in order when "executing" code)
+    public List<IRNode> definitions = new ArrayList<>(); // definitions.get(i) is the node with def_index i (bit i in the GEN/KILL/IN/OUT vectors)
+    public List<IRBlock> blocks = new ArrayList<>(); // basic blocks in source order, blocks.get(0) is the entry block
+    public Map<String, IRBlock> labelToBlock = new HashMap<>();
+    public Map<String, IRBitVector> defsOfVar = new HashMap<>(); // variable name -> every definition of it (this is also the KILL of each of those defs)
+
+    // use-def / def-use chains (see buildChains), flat int arrays instead of per-node collections
+        //a "use" is one entry of a node's used_vars, uses of node i have the ids useStart[i] .. useStart[i + 1] - 1
+        //the defs (def_index) reaching use u are udDefs[udStart[u] .. udStart[u + 1] - 1]
+        //the uses reached by def d are duUses[duStart[d] .. duStart[d + 1] - 1]
+    public int[] useStart;
+    public int[] useNode; // use id -> node index
+    public int[] udStart;
+    public int[] udDefs;
+    public int[] duStart;
+    public int[] duUses;
 
     public IRcfg() {}
 
@@ -21,6 +38,10 @@ public class IRcfg {
         for (IRInstruction instruction : function.instructions) {
             IRNode new_node = new IRNode(instruction);
             irInstrucToNode.put(instruction.irLineNumber, new_node);
+            if (new_node.defined_var != null) { // number the definitions once, these are the bit positions for the dataflow sets
+                new_node.def_index = this.definitions.size();
+                this.definitions.add(new_node);
+            }
 
             if (instruction.opCode == IRInstruction.OpCode.LABEL) { // this instruction is a label, lets add it for easy data flow
                 String label_name = ((IRLabelOperand) instruction.operands[0]).getName();
@@ -66,8 +87,179 @@ public class IRcfg {
                     }
                 }
             }
+            curr_node.index = this.nodes.size();
             this.nodes.add(curr_node); // add this to the list of nodes after all info needed for it
         }
+
+        for (IRNode node : this.definitions) {
+            this.defsOfVar.computeIfAbsent(node.defined_var, k -> new IRBitVector(this.definitions.size())).set(node.def_index);
+        }
+        buildBlocks();
+    }
+
+    // Group the nodes into basic blocks and connect the blocks
+        //leaders: the first instruc, a label (a run of labels starts one block) and anything after a branch/goto/return
+    private void buildBlocks() {
+        IRBlock curr_block = null;
+        IRNode prev_node = null;
+        for (IRNode node : this.nodes) {
+            boolean is_leader = (prev_node == null);
+            if (prev_node != null) {
+                switch (prev_node.instruction.opCode) {
+                    case GOTO, BREQ, BRNEQ, BRLT, BRGT, BRGEQ, RETURN -> is_leader = true;
+                    case LABEL -> is_leader = false;
+                    default -> is_leader = (node.instruction.opCode == IRInstruction.OpCode.LABEL);
+                }
+            }
+            if (is_leader) {
+                curr_block = new IRBlock(this.blocks.size());
+                this.blocks.add(curr_block);
+            }
+            curr_block.nodes.add(node);
+            node.block = curr_block;
+            if (node.instruction.opCode == IRInstruction.OpCode.LABEL) {
+                this.labelToBlock.put(((IRLabelOperand) node.instruction.operands[0]).getName(), curr_block);
+            }
+            prev_node = node;
+        }
+
+        // the block edges are just the node edges leaving the last instruc of each block
+        for (IRBlock block : this.blocks) {
+            for (IRNode succ_node : block.last().successors) {
+                if (!block.successors.contains(succ_node.block)) {
+                    block.successors.add(succ_node.block);
+                    succ_node.block.predecessors.add(block);
+                }
+            }
+        }
+    }
+
+    // conditional branch: the block it ends has the taken target and the fall-through as successors
+    public static boolean isBranch(IRInstruction instruction) {
+        switch (instruction.opCode) {
+            case BREQ, BRNEQ, BRLT, BRGT, BRGEQ -> {
+                return true;
+            }
+            default -> {
+                return false;
+            }
+        }
+    }
+
+    // Depth-first postorder of the blocks starting at the entry block
+        //blocks that cannot be reached from the entry are appended afterwards (in source order) so every block still shows up once
+        //iterative so big functions cannot overflow the java stack
+    public List<IRBlock> postorder() {
+        List<IRBlock> order = new ArrayList<>();
+        boolean[] visited = new boolean[this.blocks.size()];
+        int[] next_succ = new int[this.blocks.size()];
+        IRBlock[] stack = new IRBlock[this.blocks.size()];
+        for (IRBlock root : this.blocks) {
+            if (visited[root.index]) {
+                continue;
+            }
+            int top = 0;
+            stack[top++] = root;
+            visited[root.index] = true;
+            while (top > 0) {
+                IRBlock block = stack[top - 1];
+                if (next_succ[block.index] < block.successors.size()) {
+                    IRBlock succ = block.successors.get(next_succ[block.index]++);
+                    if (!visited[succ.index]) {
+                        visited[succ.index] = true;
+                        stack[top++] = succ;
+                    }
+                } else {
+                    order.add(block);
+                    top--;
+                }
+            }
+        }
+        return order;
+    }
+
+    public List<IRBlock> reversePostorder() {
+        List<IRBlock> order = postorder();
+        Collections.reverse(order);
+        return order;
+    }
+
+    // Block-level GEN/KILL summaries, built from defsOfVar
+    public void calculateBlockSets() {
+        for (IRBlock block : this.blocks) {
+            block.calculateSets(this);
+        }
+    }
+
+    // Per-instruction IN/OUT from the block-level fixed point
+    public void deriveNodeSets() {
+        for (IRBlock block : this.blocks) {
+            block.deriveNodeSets(this);
+        }
+    }
+
+    // Use-def and def-use chains from the block-level fixed point
+        //each block is walked once with a single running IN set, so no per-instruction sets are needed
+        //for a use of v only the defs of v are tested against IN (defsOfVar), not the whole IN set
+    public void buildChains() {
+        int num_uses = 0;
+        this.useStart = new int[this.nodes.size() + 1];
+        for (IRNode node : this.nodes) {
+            this.useStart[node.index] = num_uses;
+            num_uses += node.used_vars.size();
+        }
+        this.useStart[this.nodes.size()] = num_uses;
+        this.useNode = new int[num_uses];
+        this.udStart = new int[num_uses + 1];
+
+        int[] ud_defs = new int[Math.max(16, num_uses)];
+        int num_links = 0;
+        int[] def_use_count = new int[this.definitions.size()];
+        IRBitVector curr = new IRBitVector(this.definitions.size());
+        for (IRBlock block : this.blocks) {
+            curr.copyFrom(block.IN);
+            for (IRNode node : block.nodes) {
+                int use = this.useStart[node.index];
+                for (String used_var : node.used_vars) {
+                    this.useNode[use] = node.index;
+                    this.udStart[use] = num_links;
+                    IRBitVector var_defs = this.defsOfVar.get(used_var);
+                    if (var_defs != null) {
+                        for (int d = var_defs.nextSetBit(0); d >= 0; d = var_defs.nextSetBit(d + 1)) {
+                            if (curr.get(d)) {
+                                if (num_links == ud_defs.length) {
+                                    ud_defs = Arrays.copyOf(ud_defs, num_links * 2);
+                                }
+                                ud_defs[num_links++] = d;
+                                def_use_count[d]++;
+                            }
+                        }
+                    }
+                    use++;
+                }
+                if (node.def_index >= 0) {
+                    if (!node.partial_def) {
+                        curr.andNot(this.defsOfVar.get(node.defined_var));
+                    }
+                    curr.set(node.def_index);
+                }
+            }
+        }
+        this.udStart[num_uses] = num_links;
+        this.udDefs = Arrays.copyOf(ud_defs, num_links);
+
+        // def-use is the same links the other way around (counting sort on the def)
+        this.duStart = new int[this.definitions.size() + 1];
+        for (int d = 0; d < this.definitions.size(); d++) {
+            this.duStart[d + 1] = this.duStart[d] + def_use_count[d];
+        }
+        this.duUses = new int[num_links];
+        int[] fill = Arrays.copyOf(this.duStart, this.definitions.size());
+        for (int use = 0; use < num_uses; use++) {
+            for (int k = this.udStart[use]; k < this.udStart[use + 1]; k++) {
+                this.duUses[fill[this.udDefs[k]]++] = use;
+            }
+        }
     }
 
     public void addToCFG(IRNode node) {
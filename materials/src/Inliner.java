@@ -0,0 +1,301 @@
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.IRProgram;
+import ir.datatype.IRArrayType;
+import ir.operand.IRFunctionOperand;
+import ir.operand.IRLabelOperand;
+import ir.operand.IROperand;
+import ir.operand.IRVariableOperand;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class Inliner {
+    //Inlining of calls to functions of the program (intrinsics are left alone)
+    //A call site "callr x, f, a1, .., an" is replaced by a copy of f's instrucs where
+        //every variable/label of f gets a fresh name in the caller (declared in the caller's int-list/float-list)
+        //scalar params start as a copy of their argument, array params are renamed to the argument (arrays are passed by reference)
+        //locals are zero-initialized like the interpreter does on every call: a fill for arrays, an assign for the scalars
+        //that are live at f's entry
+        //"return y" becomes "assign x, y" + a goto to a label after the copy (no goto needed for the last instruc)
+    //Cost model (size = non-label instrucs of the callee):
+        //always inline callees of at most SMALL instrucs, and callees with a single call site in the program up to MAX_SIZE
+        //otherwise the limit grows with the loop depth of the call site (LOOP_BONUS per level, at most MAX_SIZE)
+        //a caller may grow by at most budget instrucs
+    //Recursive functions (in a cycle of the call graph) are only inlined when a depth limit is given, each copy of a call
+        //that comes out of an inlined body is one level deeper than the call it came from
+    //Callees are processed before their callers, so a caller gets the already inlined version of its callees
+
+    private static final int SMALL = 8;
+    private static final int LOOP_BONUS = 16;
+    private static final int MAX_SIZE = 64;
+
+    public static int budget = 400;
+    public static int recursionDepth = 0; // how many levels of a recursive function may be inlined, 0 = none
+
+    private Map<String, IRFunction> functions = new LinkedHashMap<>();
+    private Map<String, Set<String>> callees = new HashMap<>();
+    private Set<String> recursive = new HashSet<>();
+    private Map<String, Integer> call_sites = new HashMap<>(); // callee -> number of call sites in the program
+    private Map<IRInstruction, Integer> levels = new IdentityHashMap<>(); // call copied out of an inlined body -> level
+
+    // returns how many calls were inlined
+    public static int run(IRProgram program) {
+        return run(program, recursionDepth);
+    }
+
+    public static int run(IRProgram program, int depth_limit) {
+        Inliner inliner = new Inliner();
+        for (IRFunction function : program.functions) {
+            inliner.functions.put(function.name, function);
+        }
+        inliner.buildCallGraph();
+        int total = 0;
+        for (String name : inliner.bottomUp()) {
+            IRFunction caller = inliner.functions.get(name);
+            int[] left = new int[]{budget};
+            while (inliner.inlineOne(caller, depth_limit, left)) {
+                total++;
+            }
+        }
+        return total;
+    }
+
+    private static IRFunction calleeOf(IRInstruction instruction, Map<String, IRFunction> functions) {
+        if (instruction.opCode == IRInstruction.OpCode.CALL) {
+            return functions.get(((IRFunctionOperand) instruction.operands[0]).getName());
+        }
+        if (instruction.opCode == IRInstruction.OpCode.CALLR) {
+            return functions.get(((IRFunctionOperand) instruction.operands[1]).getName());
+        }
+        return null;
+    }
+
+    private void buildCallGraph() {
+        for (IRFunction function : this.functions.values()) {
+            Set<String> out = new HashSet<>();
+            for (IRInstruction instruction : function.instructions) {
+                IRFunction callee = calleeOf(instruction, this.functions);
+                if (callee != null) {
+                    out.add(callee.name);
+                    this.call_sites.merge(callee.name, 1, Integer::sum);
+                }
+            }
+            this.callees.put(function.name, out);
+        }
+        // recursive: can reach itself
+        for (String name : this.functions.keySet()) {
+            Set<String> seen = new HashSet<>();
+            List<String> stack = new ArrayList<>(this.callees.get(name));
+            while (!stack.isEmpty()) {
+                String next = stack.remove(stack.size() - 1);
+                if (next.equals(name)) {
+                    this.recursive.add(name);
+                    break;
+                }
+                if (seen.add(next)) {
+                    stack.addAll(this.callees.get(next));
+                }
+            }
+        }
+    }
+
+    // every function after the functions it calls (cycles are broken anywhere)
+    private List<String> bottomUp() {
+        List<String> order = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (String name : this.functions.keySet()) {
+            visit(name, seen, order);
+        }
+        return order;
+    }
+
+    private void visit(String name, Set<String> seen, List<String> order) {
+        if (!seen.add(name)) {
+            return;
+        }
+        for (String callee : this.callees.get(name)) {
+            visit(callee, seen, order);
+        }
+        order.add(name);
+    }
+
+    private static int size(IRFunction function) {
+        int count = 0;
+        for (IRInstruction instruction : function.instructions) {
+            if (instruction.opCode != IRInstruction.OpCode.LABEL) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // the arguments/result fit the callee's params/return type exactly
+    private static boolean matches(IRInstruction call, IRFunction callee) {
+        int first = (call.opCode == IRInstruction.OpCode.CALLR) ? 2 : 1;
+        if (call.operands.length - first != callee.parameters.size()) {
+            return false;
+        }
+        if (call.opCode == IRInstruction.OpCode.CALLR && ((IRVariableOperand) call.operands[0]).type != callee.returnType) {
+            return false;
+        }
+        for (int k = 0; k < callee.parameters.size(); k++) {
+            IRVariableOperand param = callee.parameters.get(k);
+            IROperand actual = call.operands[first + k];
+            if (IRBuilder.typeOf(actual) != param.type || (param.type instanceof IRArrayType && !(actual instanceof IRVariableOperand))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean inlineOne(IRFunction caller, int depth_limit, int[] left) {
+        if (caller.instructions.isEmpty()) {
+            return false;
+        }
+        IRcfg cfg = new IRcfg(caller);
+        LoopForest forest = new LoopForest(cfg, new DominatorTree(cfg));
+        for (IRNode node : cfg.nodes) {
+            IRInstruction call = node.instruction;
+            IRFunction callee = calleeOf(call, this.functions);
+            if (callee == null || callee.instructions.isEmpty() || !matches(call, callee)) {
+                continue;
+            }
+            int level = this.levels.getOrDefault(call, 0);
+            if (this.recursive.contains(callee.name) && level >= depth_limit) {
+                continue;
+            }
+            int size = size(callee);
+            LoopForest.Loop loop = forest.innermost[node.block.index];
+            int depth = (loop == null) ? 0 : loop.depth;
+            int limit = (this.call_sites.getOrDefault(callee.name, 0) == 1 && !this.recursive.contains(callee.name))
+                    ? MAX_SIZE : Math.min(MAX_SIZE, SMALL + LOOP_BONUS * depth);
+            if (size > SMALL && size > limit) {
+                continue;
+            }
+            if (size > left[0]) {
+                continue;
+            }
+            left[0] -= size;
+            inline(caller, call, callee, level + 1);
+            return true;
+        }
+        return false;
+    }
+
+    private void inline(IRFunction caller, IRInstruction call, IRFunction callee, int level) {
+        IRBuilder builder = new IRBuilder(caller);
+        Map<String, String> names = new HashMap<>(); // callee variable/label -> name in the caller
+        List<IRInstruction> code = new ArrayList<>();
+
+        int first = (call.opCode == IRInstruction.OpCode.CALLR) ? 2 : 1;
+        Set<String> params = new HashSet<>();
+        for (int k = 0; k < callee.parameters.size(); k++) {
+            IRVariableOperand param = callee.parameters.get(k);
+            IROperand actual = call.operands[first + k];
+            params.add(param.getName());
+            if (param.type instanceof IRArrayType) {
+                names.put(param.getName(), actual.toString());
+                continue;
+            }
+            IRVariableOperand copy = builder.newVariable(callee.name + "_" + param.getName(), param.type);
+            names.put(param.getName(), copy.getName());
+            code.add(builder.assign(copy, actual));
+        }
+
+        Set<String> used = new HashSet<>();
+        for (IRInstruction instruction : callee.instructions) {
+            for (IROperand operand : instruction.operands) {
+                if (operand instanceof IRVariableOperand) {
+                    used.add(operand.toString());
+                }
+            }
+        }
+        List<IRVariableOperand> zeroed = IRBuilder.zeroedLocals(callee);
+        for (IRVariableOperand variable : new ArrayList<>(callee.variables)) { // the callee can be the caller itself
+            if (params.contains(variable.getName()) || names.containsKey(variable.getName()) || !used.contains(variable.getName())) {
+                continue;
+            }
+            IRVariableOperand local = builder.newVariable(callee.name + "_" + variable.getName(), variable.type);
+            names.put(variable.getName(), local.getName());
+            if (zeroed.contains(variable)) {
+                code.add(builder.zeroInit(local));
+            }
+        }
+
+        for (IRInstruction instruction : callee.instructions) {
+            if (instruction.opCode == IRInstruction.OpCode.LABEL) {
+                String label = ((IRLabelOperand) instruction.operands[0]).getName();
+                names.put(label, builder.newName(callee.name + "_" + label));
+            }
+        }
+        String end = builder.newName(callee.name + "_return");
+
+        List<IRInstruction> body = callee.instructions;
+        for (int k = 0; k < body.size(); k++) {
+            IRInstruction instruction = body.get(k);
+            if (instruction.opCode == IRInstruction.OpCode.RETURN) {
+                if (call.opCode == IRInstruction.OpCode.CALLR) {
+                    IRInstruction assign = builder.newInstruction(IRInstruction.OpCode.ASSIGN);
+                    assign.operands = new IROperand[]{IRBuilder.copyOperand(call.operands[0], assign), rename(instruction.operands[0], names, assign)};
+                    code.add(assign);
+                }
+                if (k + 1 < body.size()) {
+                    IRInstruction jump = builder.newInstruction(IRInstruction.OpCode.GOTO);
+                    jump.operands = new IROperand[]{new IRLabelOperand(end, jump)};
+                    code.add(jump);
+                }
+                continue;
+            }
+            IRInstruction copy = builder.newInstruction(instruction.opCode);
+            copy.operands = new IROperand[instruction.operands.length];
+            for (int i = 0; i < instruction.operands.length; i++) {
+                copy.operands[i] = rename(instruction.operands[i], names, copy);
+            }
+            if (calleeOf(copy, this.functions) != null) {
+                this.levels.put(copy, level + this.levels.getOrDefault(instruction, 0));
+            }
+            code.add(copy);
+        }
+        IRInstruction end_label = builder.newInstruction(IRInstruction.OpCode.LABEL);
+        end_label.operands = new IROperand[]{new IRLabelOperand(end, end_label)};
+        code.add(end_label);
+
+        List<IRInstruction> result = new ArrayList<>();
+        for (IRInstruction instruction : caller.instructions) {
+            if (instruction == call) {
+                result.addAll(code);
+            } else {
+                result.add(instruction);
+            }
+        }
+        caller.instructions = result;
+
+        // the call graph now has the callee's calls in the caller instead of this one
+        this.call_sites.merge(callee.name, -1, Integer::sum);
+        for (IRInstruction instruction : code) {
+            IRFunction next = calleeOf(instruction, this.functions);
+            if (next != null) {
+                this.call_sites.merge(next.name, 1, Integer::sum);
+            }
+        }
+    }
+
+    private static IROperand rename(IROperand operand, Map<String, String> names, IRInstruction parent) {
+        if (operand instanceof IRVariableOperand) {
+            IRVariableOperand variable = (IRVariableOperand) operand;
+            return new IRVariableOperand(variable.type, names.getOrDefault(variable.getName(), variable.getName()), parent);
+        }
+        if (operand instanceof IRLabelOperand) {
+            String label = ((IRLabelOperand) operand).getName();
+            return new IRLabelOperand(names.getOrDefault(label, label), parent);
+        }
+        return IRBuilder.copyOperand(operand, parent);
+    }
+}
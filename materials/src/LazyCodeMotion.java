@@ -0,0 +1,467 @@
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.datatype.IRFloatType;
+import ir.datatype.IRIntType;
+import ir.operand.IRConstantOperand;
+import ir.operand.IRLabelOperand;
+import ir.operand.IROperand;
+import ir.operand.IRVariableOperand;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class LazyCodeMotion {
+    //Partial redundancy elimination by lazy code motion over the blocks of an IRcfg
+        //expressions are lexical: (opcode, type, operand, operand) of ADD/SUB/MULT/AND/OR and the DIVs that cannot trap,
+        //commutative operands are sorted, an expression is killed by any def of one of its operands
+        //per block: UE (computed before any operand is redefined), DE (computed and not killed after), KILL
+    //Two bit vector analyses then place every expression
+        //available (forward, must): AVAIL_OUT = DE U (AVAIL_IN - KILL)
+        //anticipated (backward, must): ANT_IN = UE U (ANT_OUT - KILL), so nothing is ever computed on a path that did not
+            //compute it before (an inserted DIV could trap or print nothing where the original would have)
+        //earliest(i, j) = ANT_IN(j) - AVAIL_OUT(i) - (ANT_OUT(i) - KILL(i)), with a virtual entry edge into block 0
+        //later(i, j) = earliest(i, j) U (LATER_IN(i) - UE(i)), LATER_IN(j) = intersection of later(i, j) over the predecessors
+        //insert(i, j) = later(i, j) - LATER_IN(j), delete(k) = UE(k) - LATER_IN(k)
+    //The variable an expression is computed into doubles as the temporary that carries it to the deletes
+        //so an expression only moves if every computation of it writes the same variable, nothing else writes that variable,
+        //the expression does not read it, and it is dead wherever an insert puts a new computation of it
+        //(a new temporary would leave a copy behind at every delete, which costs as much as the computation it replaced)
+    //Deletes drop the first upward exposed computation of the block, inserts compute the expression on the edge
+    //Edges are placed without new jumps where possible: at the top of a target with one predecessor, at the bottom of a
+        //source with one successor, right after the branch for a fall-through edge, or as a new block in front of the target's
+        //label when the code above it never falls through; only the other taken critical edges get a block out of line + goto
+    //Loop invariant computations of bottom-tested loops (what LoopRotation leaves) end up in front of the loop this way,
+        //and a computation that is already done on some of the paths into a join is only added on the others
+
+    private IRFunction function;
+    private IRcfg cfg;
+    private List<IRInstruction> samples = new ArrayList<>(); // expression index -> its first computation
+    private Map<String, Integer> expressions = new HashMap<>(); // key -> expression index
+    private Map<String, List<Integer>> readers = new HashMap<>(); // variable -> the expressions that read it
+    private IRBitVector[] ue;
+    private IRBitVector[] de;
+    private IRBitVector[] kill;
+    private IRBitVector[] later_in;
+    private boolean[] reachable;
+    private ExpressionAnalysis available;
+    private ExpressionAnalysis anticipated;
+
+    private static class ExpressionAnalysis extends BitVectorAnalysis {
+        private int size;
+        private boolean forward;
+
+        ExpressionAnalysis(int size, boolean forward, IRBitVector[] gen, IRBitVector[] kill) {
+            this.size = size;
+            this.forward = forward;
+            this.gen = gen;
+            this.kill = kill;
+        }
+
+        public String name() {
+            return this.forward ? "available expressions" : "anticipated expressions";
+        }
+
+        public boolean isForward() {
+            return this.forward;
+        }
+
+        protected boolean isUnion() {
+            return false;
+        }
+
+        protected int size() {
+            return this.size;
+        }
+
+        // nothing is available at the entry or anticipated at an exit
+        protected IRBitVector boundaryFact() {
+            return new IRBitVector(this.size);
+        }
+    }
+
+    // returns how many computations were deleted (each one is now a copy of a value computed earlier)
+    public static int run(IRFunction function) {
+        if (function.instructions.isEmpty()) {
+            return 0;
+        }
+        LazyCodeMotion pass = new LazyCodeMotion();
+        pass.function = function;
+        return pass.rewrite();
+    }
+
+    // the key of the expression instruction computes, null if it is not one we move
+    private static String keyOf(IRInstruction instruction) {
+        String y = instruction.operands.length > 2 ? instruction.operands[1].toString() : null;
+        String z = instruction.operands.length > 2 ? instruction.operands[2].toString() : null;
+        switch (instruction.opCode) {
+            case ADD, MULT, AND, OR -> {
+                if (y.compareTo(z) > 0) {
+                    String swap = y;
+                    y = z;
+                    z = swap;
+                }
+            }
+            case SUB -> {
+                break;
+            }
+            case DIV -> {
+                if (((IRVariableOperand) instruction.operands[0]).type == IRIntType.get() && !isNonzeroConstant(instruction.operands[2])) {
+                    return null;
+                }
+            }
+            default -> {
+                return null;
+            }
+        }
+        String type = (((IRVariableOperand) instruction.operands[0]).type == IRFloatType.get()) ? "float" : "int";
+        return instruction.opCode + " " + type + " " + y + " " + z;
+    }
+
+    private static boolean isNonzeroConstant(IROperand operand) {
+        return operand instanceof IRConstantOperand && Integer.parseInt(((IRConstantOperand) operand).getValueString()) != 0;
+    }
+
+    private int indexOf(IRInstruction instruction) {
+        String key = keyOf(instruction);
+        return (key == null) ? -1 : this.expressions.get(key);
+    }
+
+    private void collect() {
+        for (IRInstruction instruction : this.function.instructions) {
+            String key = keyOf(instruction);
+            if (key == null || this.expressions.containsKey(key)) {
+                continue;
+            }
+            int e = this.samples.size();
+            this.expressions.put(key, e);
+            this.samples.add(instruction);
+            for (int i = 1; i < 3; i++) {
+                if (instruction.operands[i] instanceof IRVariableOperand) {
+                    List<Integer> list = this.readers.computeIfAbsent(instruction.operands[i].toString(), name -> new ArrayList<>());
+                    if (list.isEmpty() || list.get(list.size() - 1) != e) {
+                        list.add(e);
+                    }
+                }
+            }
+        }
+    }
+
+    private void localSets() {
+        int n = this.cfg.blocks.size();
+        int size = this.samples.size();
+        this.ue = new IRBitVector[n];
+        this.de = new IRBitVector[n];
+        this.kill = new IRBitVector[n];
+        for (IRBlock block : this.cfg.blocks) {
+            IRBitVector ue = new IRBitVector(size);
+            IRBitVector de = new IRBitVector(size);
+            IRBitVector killed = new IRBitVector(size);
+            for (IRNode node : block.nodes) {
+                IRInstruction instruction = node.instruction;
+                int e = indexOf(instruction);
+                if (e >= 0) {
+                    if (!killed.get(e)) {
+                        ue.set(e);
+                    }
+                    de.set(e);
+                }
+                if (SSAForm.isScalarDef(instruction)) {
+                    for (int other : this.readers.getOrDefault(instruction.operands[0].toString(), List.of())) {
+                        killed.set(other);
+                        de.clear(other);
+                    }
+                }
+            }
+            this.ue[block.index] = ue;
+            this.de[block.index] = de;
+            this.kill[block.index] = killed;
+        }
+    }
+
+    private void findReachable() {
+        this.reachable = new boolean[this.cfg.blocks.size()];
+        List<IRBlock> stack = new ArrayList<>();
+        stack.add(this.cfg.blocks.get(0));
+        this.reachable[0] = true;
+        while (!stack.isEmpty()) {
+            IRBlock block = stack.remove(stack.size() - 1);
+            for (IRBlock succ : block.successors) {
+                if (!this.reachable[succ.index]) {
+                    this.reachable[succ.index] = true;
+                    stack.add(succ);
+                }
+            }
+        }
+    }
+
+    // earliest on the edge i -> j, i == null is the virtual edge into the entry block
+    private IRBitVector earliest(IRBlock i, IRBlock j) {
+        IRBitVector result = new IRBitVector(this.anticipated.in(j));
+        if (i == null) {
+            return result;
+        }
+        result.andNot(this.available.out(i));
+        IRBitVector not_moved_up = new IRBitVector(this.samples.size());
+        not_moved_up.setAll();
+        not_moved_up.andNot(this.anticipated.out(i));
+        not_moved_up.or(this.kill[i.index]);
+        result.and(not_moved_up);
+        return result;
+    }
+
+    private IRBitVector later(IRBlock i, IRBlock j) {
+        IRBitVector result = earliest(i, j);
+        if (i != null) {
+            IRBitVector passed = new IRBitVector(this.later_in[i.index]);
+            passed.andNot(this.ue[i.index]);
+            result.or(passed);
+        }
+        return result;
+    }
+
+    // the predecessors of a block an edge can come from, each once
+    private List<IRBlock> predecessors(IRBlock block) {
+        Set<IRBlock> result = new LinkedHashSet<>();
+        for (IRBlock pred : block.predecessors) {
+            if (this.reachable[pred.index]) {
+                result.add(pred);
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    private void solveLater() {
+        int n = this.cfg.blocks.size();
+        this.later_in = new IRBitVector[n];
+        for (int b = 0; b < n; b++) {
+            this.later_in[b] = new IRBitVector(this.samples.size());
+            this.later_in[b].setAll();
+        }
+        WorklistSolver solver = new WorklistSolver();
+        solver.solve(this.cfg, true, block -> {
+            if (!this.reachable[block.index]) {
+                return false;
+            }
+            IRBitVector result = new IRBitVector(this.samples.size());
+            result.setAll();
+            if (block.index == 0) {
+                result.and(later(null, block));
+            }
+            for (IRBlock pred : predecessors(block)) {
+                result.and(later(pred, block));
+            }
+            if (result.equals(this.later_in[block.index])) {
+                return false;
+            }
+            this.later_in[block.index] = result;
+            return true;
+        });
+    }
+
+    // what an insert on the edge i -> j computes (i == null is the virtual entry edge)
+    private IRBitVector insert(IRBlock i, IRBlock j) {
+        IRBitVector result = later(i, j);
+        result.andNot(this.later_in[j.index]);
+        return result;
+    }
+
+    // the variable every computation of each expression writes, null if there is not exactly one such variable
+        //or it is also written by anything else or read by the expression itself
+    private String[] targets() {
+        String[] target = new String[this.samples.size()];
+        boolean[] mixed = new boolean[this.samples.size()];
+        Map<String, Integer> writer = new HashMap<>(); // variable -> the one expression computed into it, -1 if none or several
+        for (IRInstruction instruction : this.function.instructions) {
+            if (!SSAForm.isScalarDef(instruction)) {
+                continue;
+            }
+            String var = instruction.operands[0].toString();
+            int e = indexOf(instruction);
+            writer.merge(var, e, (old, now) -> old.equals(now) ? old : -1);
+            if (e < 0) {
+                continue;
+            }
+            if (target[e] == null) {
+                target[e] = var;
+            } else if (!target[e].equals(var)) {
+                mixed[e] = true;
+            }
+        }
+        for (int e = 0; e < target.length; e++) {
+            IRInstruction sample = this.samples.get(e);
+            if (mixed[e] || writer.get(target[e]) != e
+                    || sample.operands[1].toString().equals(target[e]) || sample.operands[2].toString().equals(target[e])) {
+                target[e] = null;
+            }
+        }
+        return target;
+    }
+
+    private int rewrite() {
+        this.cfg = new IRcfg(this.function);
+        collect();
+        if (this.samples.isEmpty()) {
+            return 0;
+        }
+        localSets();
+        findReachable();
+        this.available = new ExpressionAnalysis(this.samples.size(), true, this.de, this.kill);
+        this.available.solve(this.cfg);
+        this.anticipated = new ExpressionAnalysis(this.samples.size(), false, this.ue, this.kill);
+        this.anticipated.solve(this.cfg);
+        solveLater();
+
+        String[] target = targets();
+        IRBitVector moved = new IRBitVector(this.samples.size());
+        for (IRBlock block : this.cfg.blocks) {
+            if (this.reachable[block.index]) {
+                IRBitVector delete = new IRBitVector(this.ue[block.index]);
+                delete.andNot(this.later_in[block.index]);
+                moved.or(delete);
+            }
+        }
+        for (int e = 0; e < target.length; e++) {
+            if (target[e] == null) {
+                moved.clear(e);
+            }
+        }
+        // an insert overwrites the target, so it must not hold anything that is still read there
+        Liveness liveness = new Liveness(this.function);
+        liveness.solve(this.cfg);
+        for (IRBlock j : this.cfg.blocks) {
+            if (!this.reachable[j.index]) {
+                continue;
+            }
+            IRBitVector inserted = new IRBitVector(this.samples.size());
+            if (j.index == 0) {
+                inserted.or(insert(null, j));
+            }
+            for (IRBlock i : predecessors(j)) {
+                inserted.or(insert(i, j));
+            }
+            inserted.and(moved);
+            for (int e = inserted.nextSetBit(0); e >= 0; e = inserted.nextSetBit(e + 1)) {
+                if (liveness.in(j).get(liveness.varIndex.get(target[e]))) {
+                    moved.clear(e);
+                }
+            }
+        }
+        if (moved.isEmpty()) {
+            return 0;
+        }
+
+        // the deletes: the first upward exposed computation of a moved expression in the block
+        Set<IRInstruction> deleted = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (IRBlock block : this.cfg.blocks) {
+            if (!this.reachable[block.index]) {
+                continue;
+            }
+            IRBitVector pending = new IRBitVector(this.ue[block.index]);
+            pending.andNot(this.later_in[block.index]);
+            pending.and(moved);
+            for (IRNode node : block.nodes) {
+                IRInstruction instruction = node.instruction;
+                int e = indexOf(instruction);
+                if (e >= 0 && pending.get(e)) {
+                    pending.clear(e);
+                    deleted.add(instruction);
+                }
+                if (SSAForm.isScalarDef(instruction)) {
+                    for (int other : this.readers.getOrDefault(instruction.operands[0].toString(), List.of())) {
+                        pending.clear(other);
+                    }
+                }
+            }
+        }
+
+        // the inserts, by where they go
+        IRBuilder builder = new IRBuilder(this.function);
+        Map<IRInstruction, List<IRInstruction>> before = new IdentityHashMap<>();
+        Map<IRInstruction, List<IRInstruction>> after = new IdentityHashMap<>();
+        List<IRInstruction> out_of_line = new ArrayList<>();
+        boolean[] slot_used = new boolean[this.cfg.blocks.size()]; // a new block already sits in front of this block's label
+        for (IRBlock j : this.cfg.blocks) {
+            if (!this.reachable[j.index]) {
+                continue;
+            }
+            List<IRBlock> preds = predecessors(j);
+            if (j.index == 0) {
+                IRBitVector insert = insert(null, j);
+                insert.and(moved);
+                before.computeIfAbsent(j.first().instruction, k -> new ArrayList<>()).addAll(computeAll(builder, insert));
+            }
+            for (IRBlock i : preds) {
+                IRBitVector insert = insert(i, j);
+                insert.and(moved);
+                if (insert.isEmpty()) {
+                    continue;
+                }
+                List<IRInstruction> code = computeAll(builder, insert);
+                IRInstruction last = i.last().instruction;
+                IRInstruction label = j.lastLabel();
+                if (j.index != 0 && preds.size() == 1) {
+                    if (label != null) {
+                        after.computeIfAbsent(label, k -> new ArrayList<>()).addAll(code);
+                    } else {
+                        before.computeIfAbsent(j.first().instruction, k -> new ArrayList<>()).addAll(code);
+                    }
+                } else if (new HashSet<>(i.successors).size() == 1) {
+                    if (last.opCode == IRInstruction.OpCode.GOTO || IRcfg.isBranch(last)) {
+                        before.computeIfAbsent(last, k -> new ArrayList<>()).addAll(code);
+                    } else {
+                        after.computeIfAbsent(last, k -> new ArrayList<>()).addAll(code);
+                    }
+                } else if (j.index == i.index + 1) { // the fall-through edge of a branch
+                    after.computeIfAbsent(last, k -> new ArrayList<>()).addAll(code);
+                } else { // the taken edge of a branch into a join: a new block that only this edge goes through
+                    String name = ((IRLabelOperand) label.operands[0]).getName();
+                    IRInstruction split = builder.newLabel(name + "_edge");
+                    last.operands[0] = new IRLabelOperand(((IRLabelOperand) split.operands[0]).getName(), last);
+                    List<IRInstruction> edge = new ArrayList<>();
+                    edge.add(split);
+                    edge.addAll(code);
+                    IRInstruction above = (j.index > 0) ? this.cfg.blocks.get(j.index - 1).last().instruction : null;
+                    if (!slot_used[j.index] && above != null
+                            && (above.opCode == IRInstruction.OpCode.GOTO || above.opCode == IRInstruction.OpCode.RETURN)) {
+                        slot_used[j.index] = true;
+                        before.computeIfAbsent(j.first().instruction, k -> new ArrayList<>()).addAll(edge);
+                    } else {
+                        IRInstruction jump = builder.newInstruction(IRInstruction.OpCode.GOTO);
+                        jump.operands = new IROperand[]{new IRLabelOperand(name, jump)};
+                        edge.add(jump);
+                        out_of_line.addAll(edge);
+                    }
+                }
+            }
+        }
+
+        List<IRInstruction> result = new ArrayList<>();
+        for (IRInstruction instruction : this.function.instructions) {
+            result.addAll(before.getOrDefault(instruction, List.of()));
+            if (!deleted.contains(instruction)) {
+                result.add(instruction);
+            }
+            result.addAll(after.getOrDefault(instruction, List.of()));
+        }
+        if (!out_of_line.isEmpty()) {
+            builder.appendBlock(result, out_of_line);
+        }
+        this.function.instructions = result;
+        return deleted.size();
+    }
+
+    private List<IRInstruction> computeAll(IRBuilder builder, IRBitVector set) {
+        List<IRInstruction> result = new ArrayList<>();
+        for (int e = set.nextSetBit(0); e >= 0; e = set.nextSetBit(e + 1)) {
+            result.add(builder.copy(this.samples.get(e)));
+        }
+        return result;
+    }
+}
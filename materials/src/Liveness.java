@@ -0,0 +1,93 @@
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.datatype.IRArrayType;
+import ir.operand.IRVariableOperand;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class Liveness extends BitVectorAnalysis {
+    //Backward liveness of the scalar variables (parameters included, arrays are memory and never tracked)
+        //bits are variable indexes (see vars), GEN = upward exposed uses of the block, KILL = scalars the block defines
+        //in(block) is the live-in, out(block) the live-out of the block
+    //Instruc-level liveness is recovered by walking a block backwards from out(block) with step()
+    public List<String> vars = new ArrayList<>();
+    public Map<String, Integer> varIndex = new HashMap<>();
+
+    public Liveness(IRFunction function) {
+        for (IRVariableOperand variable : function.parameters) {
+            addVar(variable);
+        }
+        for (IRVariableOperand variable : function.variables) {
+            addVar(variable);
+        }
+    }
+
+    private void addVar(IRVariableOperand variable) {
+        if (variable.type instanceof IRArrayType || this.varIndex.containsKey(variable.getName())) {
+            return;
+        }
+        this.varIndex.put(variable.getName(), this.vars.size());
+        this.vars.add(variable.getName());
+    }
+
+    public String name() {
+        return "liveness";
+    }
+
+    public boolean isForward() {
+        return false;
+    }
+
+    protected boolean isUnion() {
+        return true;
+    }
+
+    protected int size() {
+        return this.vars.size();
+    }
+
+    protected void init(IRcfg cfg) {
+        this.gen = new IRBitVector[cfg.blocks.size()];
+        this.kill = new IRBitVector[cfg.blocks.size()];
+        for (IRBlock block : cfg.blocks) {
+            IRBitVector ue = new IRBitVector(size());
+            IRBitVector defined = new IRBitVector(size());
+            for (IRNode node : block.nodes) {
+                IRInstruction instruction = node.instruction;
+                for (int i = 0; i < instruction.operands.length; i++) {
+                    if (SSAForm.isScalarUse(instruction, i)) {
+                        int v = index(instruction, i);
+                        if (!defined.get(v)) {
+                            ue.set(v);
+                        }
+                    }
+                }
+                if (SSAForm.isScalarDef(instruction)) {
+                    defined.set(index(instruction, 0));
+                }
+            }
+            this.gen[block.index] = ue;
+            this.kill[block.index] = defined;
+        }
+    }
+
+    // variable index of operands[i] (which must be a scalar variable)
+    public int index(IRInstruction instruction, int i) {
+        return this.varIndex.get(((IRVariableOperand) instruction.operands[i]).getName());
+    }
+
+    // live = the variables live right after instruction -> the variables live right before it
+    public void step(IRInstruction instruction, IRBitVector live) {
+        if (SSAForm.isScalarDef(instruction)) {
+            live.clear(index(instruction, 0));
+        }
+        for (int i = 0; i < instruction.operands.length; i++) {
+            if (SSAForm.isScalarUse(instruction, i)) {
+                live.set(index(instruction, i));
+            }
+        }
+    }
+}
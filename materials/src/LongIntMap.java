@@ -0,0 +1,87 @@
+import java.util.Arrays;
+
+public class LongIntMap {
+    //Hash map from long keys to int values with open addressing (linear probing) in two flat arrays
+        //no boxing and no entry objects, used for hash tables keyed by packed ints (e.g. value numbering)
+    //There is no remove, callers that need scoping validate the values they get back instead
+    private long[] keys;
+    private int[] values;
+    private boolean[] used;
+    private int count = 0;
+
+    public LongIntMap() {
+        this(16);
+    }
+
+    public LongIntMap(int capacity) {
+        int size = 16;
+        while (size < capacity * 2) {
+            size <<= 1;
+        }
+        this.keys = new long[size];
+        this.values = new int[size];
+        this.used = new boolean[size];
+    }
+
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    private int slot(long key) {
+        int mask = this.keys.length - 1;
+        int i = hash(key) & mask;
+        while (this.used[i] && this.keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    // value of key, or missing if it is not in the map
+    public int get(long key, int missing) {
+        int i = slot(key);
+        return this.used[i] ? this.values[i] : missing;
+    }
+
+    public void put(long key, int value) {
+        int i = slot(key);
+        if (!this.used[i]) {
+            if ((this.count + 1) * 2 > this.keys.length) {
+                grow();
+                i = slot(key);
+            }
+            this.used[i] = true;
+            this.keys[i] = key;
+            this.count++;
+        }
+        this.values[i] = value;
+    }
+
+    public int size() {
+        return this.count;
+    }
+
+    public void clear() {
+        Arrays.fill(this.used, false);
+        this.count = 0;
+    }
+
+    private void grow() {
+        long[] old_keys = this.keys;
+        int[] old_values = this.values;
+        boolean[] old_used = this.used;
+        this.keys = new long[old_keys.length * 2];
+        this.values = new int[old_keys.length * 2];
+        this.used = new boolean[old_keys.length * 2];
+        for (int i = 0; i < old_keys.length; i++) {
+            if (old_used[i]) {
+                int j = slot(old_keys[i]);
+                this.used[j] = true;
+                this.keys[j] = old_keys[i];
+                this.values[j] = old_values[i];
+            }
+        }
+    }
+}
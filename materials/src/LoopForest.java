@@ -0,0 +1,236 @@
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.operand.IRLabelOperand;
+import ir.operand.IROperand;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class LoopForest {
+    //Natural loops of an IRcfg and their nesting forest
+        //a back edge is an edge t -> h where h dominates t, the loop of h is h plus every block that reaches a latch t
+        //without going through h (loops with the same header are merged)
+        //a loop's parent is the smallest other loop that contains its header
+    //insertPreheader() gives a loop a block that every entry into the loop (and nothing else) goes through
+
+    public static class Loop {
+        public IRBlock header;
+        public IRBitVector blocks; // by block index
+        public List<IRBlock> body = new ArrayList<>(); // the blocks in source order
+        public List<IRBlock> latches = new ArrayList<>(); // sources of the back edges
+        public Loop parent;
+        public List<Loop> children = new ArrayList<>();
+        public int depth = 1; // 1 for outermost loops
+
+        public boolean contains(IRBlock block) {
+            return this.blocks.get(block.index);
+        }
+
+        // blocks of the loop with an edge out of it (or no successors at all, i.e. a return)
+        public List<IRBlock> exits() {
+            List<IRBlock> result = new ArrayList<>();
+            for (IRBlock block : this.body) {
+                boolean leaves = block.successors.isEmpty();
+                for (IRBlock succ : block.successors) {
+                    leaves |= !contains(succ);
+                }
+                if (leaves) {
+                    result.add(block);
+                }
+            }
+            return result;
+        }
+
+        // For testing purposes
+        public String toString() {
+            return "loop B" + this.header.index + " depth " + this.depth + " " + this.body;
+        }
+    }
+
+    public IRcfg cfg;
+    public DominatorTree dom;
+    public List<Loop> loops = new ArrayList<>(); // innermost (smallest) first
+    public List<Loop> roots = new ArrayList<>(); // outermost loops
+    public Loop[] innermost; // by block index, the innermost loop the block is in (null if none)
+
+    public LoopForest(IRcfg cfg, DominatorTree dom) {
+        this.cfg = cfg;
+        this.dom = dom;
+        int n = cfg.blocks.size();
+        Loop[] by_header = new Loop[n];
+        for (IRBlock block : cfg.blocks) {
+            if (!dom.isReachable(block.index)) {
+                continue;
+            }
+            for (IRBlock succ : block.successors) {
+                if (!dom.dominates(succ.index, block.index)) {
+                    continue;
+                }
+                Loop loop = by_header[succ.index];
+                if (loop == null) {
+                    loop = new Loop();
+                    loop.header = succ;
+                    loop.blocks = new IRBitVector(n);
+                    loop.blocks.set(succ.index);
+                    by_header[succ.index] = loop;
+                    this.loops.add(loop);
+                }
+                if (!loop.latches.contains(block)) {
+                    loop.latches.add(block);
+                }
+                addBody(loop, block);
+            }
+        }
+        for (Loop loop : this.loops) {
+            for (int b = loop.blocks.nextSetBit(0); b >= 0; b = loop.blocks.nextSetBit(b + 1)) {
+                loop.body.add(cfg.blocks.get(b));
+            }
+        }
+
+        // nesting: the parent is the smallest other loop around the header
+        this.loops.sort(Comparator.comparingInt(loop -> loop.body.size()));
+        for (int i = 0; i < this.loops.size(); i++) {
+            Loop loop = this.loops.get(i);
+            for (int j = i + 1; j < this.loops.size(); j++) {
+                if (this.loops.get(j).contains(loop.header)) {
+                    loop.parent = this.loops.get(j);
+                    loop.parent.children.add(loop);
+                    break;
+                }
+            }
+            if (loop.parent == null) {
+                this.roots.add(loop);
+            }
+        }
+        for (int i = this.loops.size() - 1; i >= 0; i--) { // parents are bigger, so they come later
+            Loop loop = this.loops.get(i);
+            loop.depth = (loop.parent == null) ? 1 : loop.parent.depth + 1;
+        }
+        this.innermost = new Loop[n];
+        for (int i = this.loops.size() - 1; i >= 0; i--) {
+            for (IRBlock block : this.loops.get(i).body) {
+                this.innermost[block.index] = this.loops.get(i);
+            }
+        }
+    }
+
+    // add latch and everything that reaches it without going through the header (header is already in)
+    private void addBody(Loop loop, IRBlock latch) {
+        List<IRBlock> stack = new ArrayList<>();
+        if (!loop.blocks.get(latch.index)) {
+            loop.blocks.set(latch.index);
+            stack.add(latch);
+        }
+        while (!stack.isEmpty()) {
+            IRBlock block = stack.remove(stack.size() - 1);
+            for (IRBlock pred : block.predecessors) {
+                if (this.dom.isReachable(pred.index) && !loop.blocks.get(pred.index)) {
+                    loop.blocks.set(pred.index);
+                    stack.add(pred);
+                }
+            }
+        }
+    }
+
+    // loop depth of a block, 0 if it is in no loop
+    public int depth(IRBlock block) {
+        return (this.innermost[block.index] == null) ? 0 : this.innermost[block.index].depth;
+    }
+
+    private static boolean fallsThrough(IRInstruction last) {
+        return last.opCode != IRInstruction.OpCode.GOTO && last.opCode != IRInstruction.OpCode.RETURN;
+    }
+
+    /* Put code in a new preheader of loop: a block that runs once every time the loop is entered from outside
+        every jump into the header from outside the loop is retargeted to a new label in front of code
+        the preheader goes right before the header, unless the block before the header is in the loop and falls into it
+        (then that fall-through is a back edge), in that case it goes at the end of the function and jumps to the header
+       The function's instructions change, the IRcfg (and this forest) are stale afterwards
+       builder must have been made before code was taken out of the function (so line numbers stay unique) */
+    public void insertPreheader(IRFunction function, IRBuilder builder, Loop loop, List<IRInstruction> code) {
+        IRInstruction first = loop.header.first().instruction;
+        String header_label = ((IRLabelOperand) first.operands[0]).getName(); // a back edge target always has a label
+        Set<String> header_labels = new HashSet<>(); // a run of labels is one block, jumps can use any of them
+        for (IRNode node : loop.header.nodes) {
+            if (node.instruction.opCode == IRInstruction.OpCode.LABEL) {
+                header_labels.add(((IRLabelOperand) node.instruction.operands[0]).getName());
+            }
+        }
+        IRInstruction preheader = builder.newLabel(header_label + "_pre");
+        String preheader_label = ((IRLabelOperand) preheader.operands[0]).getName();
+
+        for (IRBlock pred : loop.header.predecessors) {
+            IRInstruction last = pred.last().instruction;
+            if (loop.contains(pred) || last.opCode == IRInstruction.OpCode.LABEL) {
+                continue;
+            }
+            switch (last.opCode) {
+                case GOTO, BREQ, BRNEQ, BRLT, BRGT, BRGEQ -> {
+                    if (header_labels.contains(((IRLabelOperand) last.operands[0]).getName())) {
+                        last.operands[0] = new IRLabelOperand(preheader_label, last);
+                    }
+                }
+                default -> {
+                    break;
+                }
+            }
+        }
+
+        IRBlock before = (loop.header.index > 0) ? this.cfg.blocks.get(loop.header.index - 1) : null;
+        boolean back_fall_through = before != null && loop.contains(before) && fallsThrough(before.last().instruction);
+        List<IRInstruction> result = new ArrayList<>();
+        if (!back_fall_through) {
+            for (IRInstruction instruction : function.instructions) {
+                if (instruction == first) {
+                    result.add(preheader);
+                    result.addAll(code);
+                }
+                result.add(instruction);
+            }
+        } else {
+            result.addAll(function.instructions);
+            List<IRInstruction> block = new ArrayList<>();
+            block.add(preheader);
+            block.addAll(code);
+            IRInstruction jump = builder.newInstruction(IRInstruction.OpCode.GOTO);
+            jump.operands = new IROperand[]{new IRLabelOperand(header_label, jump)};
+            block.add(jump);
+            builder.appendBlock(result, block);
+        }
+        function.instructions = result;
+    }
+
+    // Drop the labels of preheaders that ended up empty (what was hoisted into them got removed or moved further out)
+        //a label is dropped when the next instruc is a label too (its block is empty) and no instruc jumps to it,
+        //nothing can tell it apart from the label it falls into then
+    // returns how many labels were removed
+    public static int removeEmptyPreheaders(IRFunction function) {
+        Set<String> targets = new HashSet<>();
+        for (IRInstruction instruction : function.instructions) {
+            if (instruction.opCode != IRInstruction.OpCode.LABEL) {
+                for (IROperand operand : instruction.operands) {
+                    if (operand instanceof IRLabelOperand) {
+                        targets.add(((IRLabelOperand) operand).getName());
+                    }
+                }
+            }
+        }
+        List<IRInstruction> result = new ArrayList<>();
+        List<IRInstruction> instructions = function.instructions;
+        for (int k = 0; k < instructions.size(); k++) {
+            IRInstruction instruction = instructions.get(k);
+            if (instruction.opCode == IRInstruction.OpCode.LABEL && k + 1 < instructions.size()
+                    && instructions.get(k + 1).opCode == IRInstruction.OpCode.LABEL
+                    && !targets.contains(((IRLabelOperand) instruction.operands[0]).getName())) {
+                continue;
+            }
+            result.add(instruction);
+        }
+        int removed = instructions.size() - result.size();
+        function.instructions = result;
+        return removed;
+    }
+}
@@ -0,0 +1,166 @@
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.datatype.IRIntType;
+import ir.operand.IRConstantOperand;
+import ir.operand.IRVariableOperand;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+public class LoopInvariantCodeMotion {
+    //Loop invariant code motion on the natural loops of LoopForest, innermost loops first
+    //x = y op z (ADD/SUB/MULT/AND/OR/DIV or a scalar ASSIGN) in loop L moves to L's preheader when
+        //1. every def of y/z reaching it is outside L, or is a single def in L that was already found invariant (use-def chains)
+        //2. it is the only def of x in L and x is not live into the header (so every use of x in L reads this def)
+        //3. its block dominates every exit of L, or x is dead on every edge out of L (then running it early changes nothing)
+    //Int DIV only moves with a nonzero constant divisor (it must not trap where the loop would not have run it),
+        //float DIV never traps
+    //With a CallGraph, a CALLR of a pure function (no effects, reads no memory) that cannot trap moves like any other op
+    //After each loop that moved something everything is rebuilt, an instruc can move out again from the outer loop
+
+    // returns how many instrucs were moved
+    public static int run(IRFunction function) {
+        return run(function, null);
+    }
+
+    public static int run(IRFunction function, CallGraph calls) {
+        int total = 0;
+        int moved = hoistOne(function, calls);
+        while (moved > 0) {
+            total += moved;
+            moved = hoistOne(function, calls);
+        }
+        return total;
+    }
+
+    // hoist out of the first (innermost first) loop that has anything invariant
+    private static int hoistOne(IRFunction function, CallGraph calls) {
+        if (function.instructions.isEmpty()) {
+            return 0;
+        }
+        IRcfg cfg = new IRcfg(function);
+        DominatorTree dom = new DominatorTree(cfg);
+        LoopForest forest = new LoopForest(cfg, dom);
+        if (forest.loops.isEmpty()) {
+            return 0;
+        }
+        new ReachingDefinitions().solve(cfg);
+        cfg.buildChains();
+        Liveness liveness = new Liveness(function);
+        liveness.solve(cfg);
+
+        for (LoopForest.Loop loop : forest.loops) {
+            List<IRNode> invariant = findInvariant(cfg, dom, liveness, loop, calls);
+            if (invariant.isEmpty()) {
+                continue;
+            }
+            Set<IRInstruction> moved = Collections.newSetFromMap(new IdentityHashMap<>());
+            List<IRInstruction> code = new ArrayList<>();
+            for (IRNode node : invariant) {
+                moved.add(node.instruction);
+                code.add(node.instruction);
+            }
+            IRBuilder builder = new IRBuilder(function);
+            function.instructions.removeIf(moved::contains);
+            forest.insertPreheader(function, builder, loop, code);
+            return code.size();
+        }
+        return 0;
+    }
+
+    private static List<IRNode> findInvariant(IRcfg cfg, DominatorTree dom, Liveness liveness, LoopForest.Loop loop, CallGraph calls) {
+        List<IRNode> invariant = new ArrayList<>();
+        boolean[] is_invariant = new boolean[cfg.nodes.size()];
+        List<IRBlock> exits = loop.exits();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (IRBlock block : loop.body) {
+                for (IRNode node : block.nodes) {
+                    if (!is_invariant[node.index] && isInvariant(cfg, dom, liveness, loop, exits, node, is_invariant, calls)) {
+                        is_invariant[node.index] = true;
+                        invariant.add(node);
+                        changed = true;
+                    }
+                }
+            }
+        }
+        return invariant;
+    }
+
+    private static boolean isInvariant(IRcfg cfg, DominatorTree dom, Liveness liveness, LoopForest.Loop loop,
+                                       List<IRBlock> exits, IRNode node, boolean[] is_invariant, CallGraph calls) {
+        IRInstruction instruction = node.instruction;
+        switch (instruction.opCode) {
+            case ADD, SUB, MULT, AND, OR -> {
+                break;
+            }
+            case ASSIGN -> {
+                if (instruction.operands.length > 2) {
+                    return false;
+                }
+            }
+            case DIV -> {
+                if (((IRVariableOperand) instruction.operands[0]).type == IRIntType.get()) {
+                    if (!(instruction.operands[2] instanceof IRConstantOperand)
+                            || Integer.parseInt(((IRConstantOperand) instruction.operands[2]).getValueString()) == 0) {
+                        return false;
+                    }
+                }
+            }
+            case CALLR -> {
+                if (calls == null || !calls.isPure(instruction) || calls.of(instruction).mayTrap) {
+                    return false;
+                }
+            }
+            default -> {
+                return false;
+            }
+        }
+
+        // 1. operands
+        for (int use = cfg.useStart[node.index]; use < cfg.useStart[node.index + 1]; use++) {
+            int inside = 0;
+            boolean inside_invariant = true;
+            for (int k = cfg.udStart[use]; k < cfg.udStart[use + 1]; k++) {
+                IRNode def = cfg.definitions.get(cfg.udDefs[k]);
+                if (loop.contains(def.block)) {
+                    inside++;
+                    inside_invariant &= is_invariant[def.index];
+                }
+            }
+            if (inside > 1 || (inside == 1 && !inside_invariant)) {
+                return false;
+            }
+        }
+
+        // 2. the only def of x in the loop, and x is not live into the header
+        IRBitVector defs = cfg.defsOfVar.get(node.defined_var);
+        for (int d = defs.nextSetBit(0); d >= 0; d = defs.nextSetBit(d + 1)) {
+            IRNode def = cfg.definitions.get(d);
+            if (def != node && loop.contains(def.block)) {
+                return false;
+            }
+        }
+        int x = liveness.index(instruction, 0);
+        if (liveness.in(loop.header).get(x)) {
+            return false;
+        }
+
+        // 3. either it runs before every way out, or nobody after the loop reads x
+        for (IRBlock exit : exits) {
+            if (dom.dominates(node.block.index, exit.index)) {
+                continue;
+            }
+            for (IRBlock succ : exit.successors) {
+                if (!loop.contains(succ) && liveness.in(succ).get(x)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
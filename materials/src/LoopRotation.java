@@ -0,0 +1,148 @@
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.datatype.IRIntType;
+import ir.operand.IRConstantOperand;
+import ir.operand.IRLabelOperand;
+import ir.operand.IROperand;
+import ir.operand.IRVariableOperand;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class LoopRotation {
+    //Loop rotation: a top-tested loop
+        //H: (header code) br EXIT, a, b / body / goto H
+    //becomes a guarded bottom-tested loop
+        //H: (header code) br EXIT, a, b / B: body / (header code) br_inverse B, a, b / [goto EXIT]
+    //so every iteration saves the goto (the header code is duplicated, the first copy is the guard and keeps H's labels so
+    //jumps into the loop from outside still go through it)
+    //Only loops whose single latch ends in "goto H", whose header test leaves the loop and falls into it, and whose header has
+        //at most MAX_HEADER instrucs besides the test
+    //Inverse tests: EQ <-> NEQ, LT <-> GEQ, a > b -> b >= a (b a variable) or a < b + 1 (b an int constant)
+        //float LT/GT/GEQ are left alone, with NaN "not less" is not "greater or equal"
+
+    private static final int MAX_HEADER = 4;
+
+    // returns how many loops were rotated
+    public static int run(IRFunction function) {
+        int total = 0;
+        while (rotateOne(function)) {
+            total++;
+        }
+        return total;
+    }
+
+    private static boolean rotateOne(IRFunction function) {
+        if (function.instructions.isEmpty()) {
+            return false;
+        }
+        IRcfg cfg = new IRcfg(function);
+        LoopForest forest = new LoopForest(cfg, new DominatorTree(cfg));
+        for (LoopForest.Loop loop : forest.loops) {
+            if (rotate(function, cfg, loop)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // branch to label taken exactly when test is not, null if we cannot express it
+    static IRInstruction inverse(IRBuilder builder, IRInstruction test, String label) {
+        IROperand a = test.operands[1];
+        IROperand b = test.operands[2];
+        boolean is_int = ((IRVariableOperand) a).type == IRIntType.get();
+        IRInstruction.OpCode opCode;
+        switch (test.opCode) {
+            case BREQ -> opCode = IRInstruction.OpCode.BRNEQ;
+            case BRNEQ -> opCode = IRInstruction.OpCode.BREQ;
+            case BRLT -> opCode = is_int ? IRInstruction.OpCode.BRGEQ : null;
+            case BRGEQ -> opCode = is_int ? IRInstruction.OpCode.BRLT : null;
+            case BRGT -> {
+                if (!is_int) {
+                    return null;
+                }
+                IRInstruction result = builder.newInstruction(b instanceof IRVariableOperand ? IRInstruction.OpCode.BRGEQ : IRInstruction.OpCode.BRLT);
+                if (b instanceof IRVariableOperand) { // a <= b is b >= a
+                    result.operands = new IROperand[]{new IRLabelOperand(label, result), IRBuilder.copyOperand(b, result), IRBuilder.copyOperand(a, result)};
+                } else { // a <= c is a < c + 1
+                    int c = Integer.parseInt(((IRConstantOperand) b).getValueString());
+                    if (c == Integer.MAX_VALUE) {
+                        return null;
+                    }
+                    result.operands = new IROperand[]{new IRLabelOperand(label, result), IRBuilder.copyOperand(a, result),
+                            new IRConstantOperand(IRIntType.get(), Integer.toString(c + 1), result)};
+                }
+                return result;
+            }
+            default -> opCode = null;
+        }
+        if (opCode == null) {
+            return null;
+        }
+        IRInstruction result = builder.newInstruction(opCode);
+        result.operands = new IROperand[]{new IRLabelOperand(label, result), IRBuilder.copyOperand(a, result), IRBuilder.copyOperand(b, result)};
+        return result;
+    }
+
+    private static boolean rotate(IRFunction function, IRcfg cfg, LoopForest.Loop loop) {
+        IRBlock header = loop.header;
+        IRInstruction test = header.last().instruction;
+        if (!IRcfg.isBranch(test) || loop.latches.size() != 1 || header.index + 1 >= cfg.blocks.size()) {
+            return false;
+        }
+        IRBlock exit = cfg.labelToBlock.get(((IRLabelOperand) test.operands[0]).getName());
+        IRBlock body = cfg.blocks.get(header.index + 1);
+        IRBlock latch = loop.latches.get(0);
+        IRInstruction jump = latch.last().instruction;
+        if (loop.contains(exit) || !loop.contains(body) || latch == header || jump.opCode != IRInstruction.OpCode.GOTO) {
+            return false;
+        }
+        List<IRInstruction> header_code = new ArrayList<>();
+        for (IRNode node : header.nodes) {
+            if (node.instruction.opCode != IRInstruction.OpCode.LABEL && node.instruction != test) {
+                header_code.add(node.instruction);
+            }
+        }
+        if (header_code.size() > MAX_HEADER) {
+            return false;
+        }
+
+        IRBuilder builder = new IRBuilder(function);
+        IRInstruction body_label = null;
+        String body_name;
+        if (body.first().instruction.opCode == IRInstruction.OpCode.LABEL) {
+            body_name = ((IRLabelOperand) body.first().instruction.operands[0]).getName();
+        } else {
+            body_label = builder.newLabel(((IRLabelOperand) header.first().instruction.operands[0]).getName() + "_body");
+            body_name = ((IRLabelOperand) body_label.operands[0]).getName();
+        }
+        IRInstruction bottom_test = inverse(builder, test, body_name);
+        if (bottom_test == null) {
+            return false;
+        }
+        List<IRInstruction> bottom = new ArrayList<>();
+        for (IRInstruction instruction : header_code) {
+            bottom.add(builder.copy(instruction));
+        }
+        bottom.add(bottom_test);
+        if (latch.index + 1 >= cfg.blocks.size() || cfg.blocks.get(latch.index + 1) != exit) {
+            IRInstruction leave = builder.newInstruction(IRInstruction.OpCode.GOTO);
+            leave.operands = new IROperand[]{IRBuilder.copyOperand(test.operands[0], leave)};
+            bottom.add(leave);
+        }
+
+        List<IRInstruction> result = new ArrayList<>();
+        for (IRInstruction instruction : function.instructions) {
+            if (instruction == jump) {
+                result.addAll(bottom);
+                continue;
+            }
+            result.add(instruction);
+            if (instruction == test && body_label != null) {
+                result.add(body_label);
+            }
+        }
+        function.instructions = result;
+        return true;
+    }
+}
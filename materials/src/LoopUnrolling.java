@@ -0,0 +1,337 @@
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.datatype.IRIntType;
+import ir.operand.IRConstantOperand;
+import ir.operand.IRLabelOperand;
+import ir.operand.IROperand;
+import ir.operand.IRVariableOperand;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class LoopUnrolling {
+    //Unrolling of counted single block loops (what LoopRotation leaves behind: B: body / br B, i, n)
+        //i is a basic induction variable (only def in the loop is i = i + c / i = c + i / i = i - c) and n is an int constant
+        //or a variable with no def in the loop, the test keeps the loop going while i < n, i <= n (c > 0) or i > n, i >= n (c < 0)
+    //Known trip count (i starts at a constant from every entry, n constant): the loop is replaced by that many copies of
+        //its body (full unroll)
+    //Otherwise the loop is unrolled by factor with the original loop kept as the remainder loop:
+        //(n_u = n - (factor - 1) * c, runtime check that it does not wrap when n is a variable)
+        //if !(i rel n_u) goto B / B_unrolled: body x factor / br B_unrolled, i, n_u / if !(i rel n) goto EXIT / B: body / br B, i, n
+        //i rel n_u at the top of an unrolled iteration means all factor iterations would have run in the original loop
+    //Only the fall-through entry goes through the unrolled loop, jumps straight to B still work (they just run the remainder)
+    //Copies get fresh line numbers, new labels get names IRBuilder has not handed out yet (no "Redefinition of label")
+    //budget is the number of instrucs a function may grow by, one loop per round then everything is rebuilt
+
+    public static int factor = 4;
+    public static int budget = 256;
+    private static final int MAX_FULL = 64; // at most this many instrucs for a fully unrolled loop
+
+    private IRcfg cfg;
+    private IRBlock block;
+    private IRInstruction test;
+    private IRInstruction increment;
+    private String i;
+    private IROperand n;
+    private int step;
+    private boolean less; // loop goes on while i < n or i <= n (false: i > n or i >= n)
+    private boolean inclusive; // <= / >=
+    private List<IRInstruction> body = new ArrayList<>();
+
+    // returns how many loops were unrolled
+    public static int run(IRFunction function) {
+        return run(function, factor, budget);
+    }
+
+    public static int run(IRFunction function, int factor, int budget) {
+        if (factor < 2) {
+            return 0;
+        }
+        int total = 0;
+        int[] left = new int[]{budget};
+        Set<String> done = new HashSet<>(); // header labels of loops that were unrolled (or made by unrolling)
+        while (unrollOne(function, factor, left, done)) {
+            total++;
+        }
+        return total;
+    }
+
+    private static boolean unrollOne(IRFunction function, int factor, int[] left, Set<String> done) {
+        if (function.instructions.isEmpty()) {
+            return false;
+        }
+        IRcfg cfg = new IRcfg(function);
+        LoopForest forest = new LoopForest(cfg, new DominatorTree(cfg));
+        if (forest.loops.isEmpty()) {
+            return false;
+        }
+        SSAForm ssa = new SSAForm(function); // start values of the induction variables (its cfg has the same blocks)
+        for (LoopForest.Loop loop : forest.loops) {
+            if (loop.body.size() != 1 || loop.header.first().instruction.opCode != IRInstruction.OpCode.LABEL) {
+                continue;
+            }
+            String name = ((IRLabelOperand) loop.header.first().instruction.operands[0]).getName();
+            if (done.contains(name)) {
+                continue;
+            }
+            LoopUnrolling pass = new LoopUnrolling();
+            pass.cfg = cfg;
+            pass.block = loop.header;
+            if (!pass.analyse()) {
+                continue;
+            }
+            IRBuilder builder = new IRBuilder(function);
+            Integer trips = pass.tripCount(ssa, loop);
+            if (trips != null && (long) trips * pass.body.size() <= Math.min(MAX_FULL, left[0] + pass.body.size())) {
+                left[0] -= (trips - 1) * pass.body.size() - 1;
+                pass.fullUnroll(function, builder, trips);
+                return true;
+            }
+            int growth = factor * pass.body.size() + 5;
+            if (growth <= left[0] && pass.unroll(function, builder, factor, done)) {
+                left[0] -= growth;
+                done.add(name);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isIntConstant(IROperand operand) {
+        return operand instanceof IRConstantOperand && ((IRConstantOperand) operand).type == IRIntType.get();
+    }
+
+    private static int intValue(IROperand operand) {
+        return Integer.parseInt(((IRConstantOperand) operand).getValueString());
+    }
+
+    private int defsInLoop(String var) {
+        int count = 0;
+        for (IRNode node : this.block.nodes) {
+            if (var.equals(node.defined_var)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // find the counted loop shape, false if this is not one
+    private boolean analyse() {
+        this.test = this.block.last().instruction;
+        switch (this.test.opCode) {
+            case BRLT, BRGT, BRGEQ -> {
+                break;
+            }
+            default -> {
+                return false;
+            }
+        }
+        if (this.cfg.labelToBlock.get(((IRLabelOperand) this.test.operands[0]).getName()) != this.block) {
+            return false;
+        }
+        for (IRNode node : this.block.nodes) {
+            if (node.instruction.opCode != IRInstruction.OpCode.LABEL && node.instruction != this.test) {
+                this.body.add(node.instruction);
+            }
+        }
+
+        // which side of the test is the induction variable
+        for (int side = 1; side <= 2 && this.increment == null; side++) {
+            if (!(this.test.operands[side] instanceof IRVariableOperand)
+                    || ((IRVariableOperand) this.test.operands[side]).type != IRIntType.get()) {
+                continue;
+            }
+            String var = this.test.operands[side].toString();
+            if (defsInLoop(var) != 1) {
+                continue;
+            }
+            IRInstruction def = null;
+            for (IRNode node : this.block.nodes) {
+                if (var.equals(node.defined_var)) {
+                    def = node.instruction;
+                }
+            }
+            Integer c = stepOf(def, var);
+            IROperand other = this.test.operands[3 - side];
+            if (c == null || c == 0 || (!isIntConstant(other) && (!(other instanceof IRVariableOperand) || defsInLoop(other.toString()) > 0))) {
+                continue;
+            }
+            this.i = var;
+            this.increment = def;
+            this.step = c;
+            this.n = other;
+            // i on the left: brlt i < n, brgt i > n, brgeq i >= n, on the right it is mirrored
+            switch (this.test.opCode) {
+                case BRLT -> this.less = (side == 1);
+                case BRGT -> this.less = (side == 2);
+                default -> {
+                    this.less = (side == 2);
+                    this.inclusive = true;
+                }
+            }
+        }
+        // the induction variable has to move towards n, otherwise this is not a counted loop
+        return this.increment != null && (this.step > 0) == this.less;
+    }
+
+    // c of i = i + c / i = c + i / i = i - c, null if def is not an increment of var
+    private static Integer stepOf(IRInstruction def, String var) {
+        IROperand y = def.operands.length > 1 ? def.operands[1] : null;
+        IROperand z = def.operands.length > 2 ? def.operands[2] : null;
+        if (def.opCode == IRInstruction.OpCode.ADD && y.toString().equals(var) && isIntConstant(z)) {
+            return intValue(z);
+        }
+        if (def.opCode == IRInstruction.OpCode.ADD && z.toString().equals(var) && isIntConstant(y)) {
+            return intValue(y);
+        }
+        if (def.opCode == IRInstruction.OpCode.SUB && y.toString().equals(var) && isIntConstant(z) && intValue(z) != Integer.MIN_VALUE) {
+            return -intValue(z);
+        }
+        return null;
+    }
+
+    private boolean goesOn(long value, long bound) {
+        if (this.less) {
+            return this.inclusive ? value <= bound : value < bound;
+        }
+        return this.inclusive ? value >= bound : value > bound;
+    }
+
+    // number of times the body runs when i starts at the same constant on every way in and n is constant, null otherwise
+        //the start value comes from the SSA phi of i in the loop block, the function entry counts as a way in (a local
+        //starts at 0 there, a param at anything), so a path into the loop that never sets i is not ignored
+    private Integer tripCount(SSAForm ssa, LoopForest.Loop loop) {
+        if (!isIntConstant(this.n)) {
+            return null;
+        }
+        Integer start = ssa.constantOnEntry(this.block.index, this.i, loop.blocks);
+        if (start == null) {
+            return null;
+        }
+        long value = start;
+        long bound = intValue(this.n);
+        int trips = 0;
+        do {
+            value += this.step;
+            trips++;
+            if (value > Integer.MAX_VALUE || value < Integer.MIN_VALUE || trips > MAX_FULL) {
+                return null;
+            }
+        } while (goesOn(value, bound));
+        return trips;
+    }
+
+    private void fullUnroll(IRFunction function, IRBuilder builder, int trips) {
+        List<IRInstruction> result = new ArrayList<>();
+        for (IRInstruction instruction : function.instructions) {
+            if (instruction == this.test) {
+                continue;
+            }
+            if (instruction == this.body.get(0)) {
+                for (int copy = 1; copy < trips; copy++) {
+                    for (IRInstruction original : this.body) {
+                        result.add(builder.copy(original));
+                    }
+                }
+            }
+            result.add(instruction);
+        }
+        function.instructions = result;
+    }
+
+    // copy of the loop test with another target and another n
+    private IRInstruction retest(IRBuilder builder, String label, IROperand bound) {
+        IRInstruction result = builder.newInstruction(this.test.opCode);
+        result.operands = new IROperand[3];
+        result.operands[0] = new IRLabelOperand(label, result);
+        for (int side = 1; side <= 2; side++) {
+            IROperand operand = (this.test.operands[side] == this.n) ? bound : this.test.operands[side];
+            result.operands[side] = IRBuilder.copyOperand(operand, result);
+        }
+        return result;
+    }
+
+    private boolean unroll(IRFunction function, IRBuilder builder, int factor, Set<String> done) {
+        if (this.block.index == 0 || this.block.index + 1 >= this.cfg.blocks.size()) {
+            return false;
+        }
+        // only the fall-through entry gets the check, so there has to be one
+        IRBlock prev = this.cfg.blocks.get(this.block.index - 1);
+        IRInstruction prev_last = prev.last().instruction;
+        if (!this.block.predecessors.contains(prev) || prev_last.opCode == IRInstruction.OpCode.GOTO) {
+            return false;
+        }
+        String loop_label = ((IRLabelOperand) this.block.first().instruction.operands[0]).getName();
+        long distance = (long) (factor - 1) * this.step;
+
+        List<IRInstruction> entry = new ArrayList<>();
+        IROperand bound;
+        if (isIntConstant(this.n)) {
+            long value = intValue(this.n) - distance;
+            if (value > Integer.MAX_VALUE || value < Integer.MIN_VALUE) {
+                return false;
+            }
+            bound = new IRConstantOperand(IRIntType.get(), Long.toString(value), null);
+        } else {
+            // n_u = n - distance must not wrap, small n just run the remainder loop
+            long limit = (this.step > 0) ? Integer.MIN_VALUE + distance : Integer.MAX_VALUE + distance;
+            if (limit > Integer.MAX_VALUE || limit < Integer.MIN_VALUE) {
+                return false;
+            }
+            IRInstruction check = builder.newInstruction(this.step > 0 ? IRInstruction.OpCode.BRLT : IRInstruction.OpCode.BRGT);
+            check.operands = new IROperand[]{new IRLabelOperand(loop_label, check), IRBuilder.copyOperand(this.n, check),
+                    new IRConstantOperand(IRIntType.get(), Long.toString(limit), check)};
+            IRVariableOperand unrolled_bound = builder.newVariable("unroll_bound", IRIntType.get());
+            IRInstruction sub = builder.newInstruction(IRInstruction.OpCode.SUB);
+            sub.operands = new IROperand[]{IRBuilder.variable(unrolled_bound, sub), IRBuilder.copyOperand(this.n, sub),
+                    new IRConstantOperand(IRIntType.get(), Long.toString(distance), sub)};
+            entry.add(check);
+            entry.add(sub);
+            bound = unrolled_bound;
+        }
+
+        IRInstruction main_label = builder.newLabel(loop_label + "_unrolled");
+        String main_name = ((IRLabelOperand) main_label.operands[0]).getName();
+        IRInstruction enter = LoopRotation.inverse(builder, retest(builder, loop_label, bound), loop_label);
+
+        // where the loop falls out to
+        IRBlock exit = this.cfg.blocks.get(this.block.index + 1);
+        IRInstruction exit_label = null;
+        String exit_name;
+        if (exit.first().instruction.opCode == IRInstruction.OpCode.LABEL) {
+            exit_name = ((IRLabelOperand) exit.first().instruction.operands[0]).getName();
+        } else {
+            exit_label = builder.newLabel(loop_label + "_exit");
+            exit_name = ((IRLabelOperand) exit_label.operands[0]).getName();
+        }
+        IRInstruction leave = LoopRotation.inverse(builder, this.test, exit_name);
+        if (enter == null || leave == null) {
+            return false;
+        }
+        entry.add(enter);
+        entry.add(main_label);
+        for (int copy = 0; copy < factor; copy++) {
+            for (IRInstruction original : this.body) {
+                entry.add(builder.copy(original));
+            }
+        }
+        entry.add(retest(builder, main_name, bound));
+        entry.add(leave);
+
+        List<IRInstruction> result = new ArrayList<>();
+        for (IRInstruction instruction : function.instructions) {
+            if (instruction == this.block.first().instruction) {
+                result.addAll(entry);
+            }
+            if (exit_label != null && instruction == exit.first().instruction) {
+                result.add(exit_label);
+            }
+            result.add(instruction);
+        }
+        function.instructions = result;
+        done.add(main_name);
+        return true;
+    }
+}
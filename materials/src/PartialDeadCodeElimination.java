@@ -0,0 +1,143 @@
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.datatype.IRIntType;
+import ir.operand.IRConstantOperand;
+import ir.operand.IRLabelOperand;
+import ir.operand.IROperand;
+import ir.operand.IRVariableOperand;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class PartialDeadCodeElimination {
+    //Partial dead code elimination by sinking: a def x = y op z in a block that ends in a branch, with x live into only one
+        //of the two successors, moves onto that edge, so the path where x is dead no longer computes it
+        //nothing after the def in the block may read x, write x/y/z, or (for ARRAY_LOAD) write memory
+        //an int DIV only moves when its divisor is a nonzero constant, otherwise its trap could move past a call that prints
+        //the edge is the fall-through (the def goes right after the branch) or a taken edge whose target has this block as
+        //its only predecessor (the def goes after the target's labels), other taken edges would need a new block and a goto
+    //Moving a def onto an edge never makes it run more often, the copy left behind is the only one so nothing is duplicated
+    //Defs that are live into neither successor are dead, DeadStoreElimination removes those
+    //One def per round then liveness is redone, a def that was used only by a sunk def follows it in a later round
+
+    // returns how many defs were sunk
+    public static int run(IRFunction function) {
+        int total = 0;
+        int limit = function.instructions.size() * 4;
+        while (total < limit && sinkOne(function)) {
+            total++;
+        }
+        return total;
+    }
+
+    private static boolean canSink(IRInstruction instruction) {
+        switch (instruction.opCode) {
+            case ADD, SUB, MULT, AND, OR, ARRAY_LOAD -> {
+                return true;
+            }
+            case DIV -> { // an int DIV that may trap must trap before anything after it prints (same rule as LICM)
+                return ((IRVariableOperand) instruction.operands[0]).type != IRIntType.get()
+                        || (instruction.operands[2] instanceof IRConstantOperand
+                        && Integer.parseInt(((IRConstantOperand) instruction.operands[2]).getValueString()) != 0);
+            }
+            case ASSIGN -> {
+                return instruction.operands.length == 2;
+            }
+            default -> {
+                return false;
+            }
+        }
+    }
+
+    private static boolean writesMemory(IRInstruction instruction) {
+        switch (instruction.opCode) {
+            case ARRAY_STORE, CALL, CALLR -> {
+                return true;
+            }
+            case ASSIGN -> {
+                return instruction.operands.length > 2;
+            }
+            default -> {
+                return false;
+            }
+        }
+    }
+
+    private static boolean sinkOne(IRFunction function) {
+        if (function.instructions.isEmpty()) {
+            return false;
+        }
+        IRcfg cfg = new IRcfg(function);
+        Liveness liveness = new Liveness(function);
+        liveness.solve(cfg);
+
+        for (IRBlock block : cfg.blocks) {
+            IRInstruction branch = block.last().instruction;
+            if (!IRcfg.isBranch(branch)) {
+                continue;
+            }
+            IRBlock taken = cfg.labelToBlock.get(((IRLabelOperand) branch.operands[0]).getName());
+            IRBlock fall = (block.index + 1 < cfg.blocks.size()) ? cfg.blocks.get(block.index + 1) : null;
+            if (taken == fall) {
+                continue;
+            }
+
+            Set<String> used_after = new HashSet<>();
+            Set<String> defined_after = new HashSet<>();
+            boolean memory_after = false;
+            for (int i = block.nodes.size() - 1; i >= 0; i--) {
+                IRNode node = block.nodes.get(i);
+                IRInstruction instruction = node.instruction;
+                if (instruction != branch && canSink(instruction) && sinkable(node, used_after, defined_after, memory_after)) {
+                    int x = liveness.varIndex.get(node.defined_var);
+                    boolean live_taken = liveness.in(taken).get(x);
+                    boolean live_fall = fall != null && liveness.in(fall).get(x);
+                    if (live_taken != live_fall && (live_fall || taken.predecessors.size() == 1)) {
+                        move(function, instruction, live_fall ? branch : taken.lastLabel());
+                        return true;
+                    }
+                }
+                used_after.addAll(node.used_vars);
+                for (IROperand operand : instruction.operands) { // array operands are not in used_vars
+                    if (operand instanceof IRVariableOperand) {
+                        used_after.add(operand.toString());
+                    }
+                }
+                if (node.defined_var != null) {
+                    defined_after.add(node.defined_var);
+                }
+                memory_after |= writesMemory(instruction);
+            }
+        }
+        return false;
+    }
+
+    private static boolean sinkable(IRNode node, Set<String> used_after, Set<String> defined_after, boolean memory_after) {
+        if (node.defined_var == null || used_after.contains(node.defined_var) || defined_after.contains(node.defined_var)) {
+            return false;
+        }
+        for (String var : node.used_vars) {
+            if (defined_after.contains(var)) {
+                return false;
+            }
+        }
+        return node.instruction.opCode != IRInstruction.OpCode.ARRAY_LOAD || !memory_after;
+    }
+
+    // move instruction to right after anchor
+    private static void move(IRFunction function, IRInstruction instruction, IRInstruction anchor) {
+        List<IRInstruction> result = new ArrayList<>();
+        for (IRInstruction other : function.instructions) {
+            if (other == instruction) {
+                continue;
+            }
+            result.add(other);
+            if (other == anchor) {
+                result.add(instruction);
+            }
+        }
+        function.instructions = result;
+    }
+}
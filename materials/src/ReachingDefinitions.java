@@ -0,0 +1,39 @@
+public class ReachingDefinitions extends BitVectorAnalysis {
+    //Reaching definitions on the framework: bits are IRcfg def_indexes, GEN/KILL are the block summaries (IRBlock.calculateSets)
+    //After solve() the results are also in IRBlock.IN/OUT, which is what buildChains() reads
+
+    public String name() {
+        return "reaching definitions";
+    }
+
+    public boolean isForward() {
+        return true;
+    }
+
+    protected boolean isUnion() {
+        return true;
+    }
+
+    protected int size() {
+        return this.cfg.definitions.size();
+    }
+
+    protected void init(IRcfg cfg) {
+        cfg.calculateBlockSets();
+        this.gen = new IRBitVector[cfg.blocks.size()];
+        this.kill = new IRBitVector[cfg.blocks.size()];
+        for (IRBlock block : cfg.blocks) {
+            this.gen[block.index] = block.GEN;
+            this.kill[block.index] = block.KILL;
+        }
+    }
+
+    public Stats solve(IRcfg cfg) {
+        Stats stats = super.solve(cfg);
+        for (IRBlock block : cfg.blocks) {
+            block.IN = in(block);
+            block.OUT = out(block);
+        }
+        return stats;
+    }
+}
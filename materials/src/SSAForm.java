@@ -0,0 +1,401 @@
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.datatype.IRArrayType;
+import ir.datatype.IRIntType;
+import ir.datatype.IRType;
+import ir.operand.IRConstantOperand;
+import ir.operand.IROperand;
+import ir.operand.IRVariableOperand;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class SSAForm {
+    //SSA form of one function, built on its IRcfg:
+        //1. dominator tree + dominance frontiers (DominatorTree)
+        //2. pruned phi placement: a phi for v only goes where v is live-in
+        //3. renaming along the dominator tree, every def of a scalar gets its own name (version 0 keeps the original name and is
+        //   the value the variable has when the function is entered)
+    //Arrays are memory, so they are never renamed (array fills/stores are not SSA defs)
+    //Only blocks reachable from the entry get SSA code, everything else is dead anyway
+    //The SSA code is a view: passes read it and rewrite the function's own instrucs (original), nothing translates it back
+
+    public static class Value {
+        public int id;
+        public String name; // name used in the SSA code
+        public String var; // the original variable
+        public IRType type;
+        public IRInstruction def; // renamed instruc that defines this value, null for phis and entry values
+        public Phi phi; // phi that defines this value
+        public IRBlock block; // block of the def (the entry block for entry values)
+        public List<Object> uses = new ArrayList<>(); // renamed IRInstructions and Phis that use this value
+
+        public boolean isEntryValue() {
+            return this.def == null && this.phi == null;
+        }
+
+        // For testing purposes
+        public String toString() {
+            return this.name;
+        }
+    }
+
+    public static class Phi {
+        public Value target;
+        public Value[] args; // args[i] comes in from block.predecessors.get(i), for the entry block the last arg is the function entry
+        public IRBlock block;
+
+        // For testing purposes
+        public String toString() {
+            StringBuilder sb = new StringBuilder(this.target.name + " = phi(");
+            for (int i = 0; i < this.args.length; i++) {
+                sb.append(i == 0 ? "" : ", ").append(this.args[i]);
+            }
+            return sb.append(")").toString();
+        }
+    }
+
+    public IRFunction function;
+    public IRcfg cfg;
+    public DominatorTree dom;
+    public List<List<Phi>> phis = new ArrayList<>(); // by block index
+    public List<List<IRInstruction>> code = new ArrayList<>(); // renamed instrucs by block index
+    public Map<IRInstruction, IRInstruction> original = new IdentityHashMap<>(); // renamed instruc -> instruc of the function
+    public Map<IRInstruction, Value> defOf = new IdentityHashMap<>(); // renamed instruc -> the value it defines
+    public List<Value> values = new ArrayList<>(); // values.get(id)
+    public Map<String, Value> valueByName = new HashMap<>();
+    public List<IRBitVector> liveIn = new ArrayList<>(); // by block index, bits are variable indexes (see vars)
+    public List<String> vars = new ArrayList<>(); // scalar variables (parameters included)
+    public Map<String, Integer> varIndex = new HashMap<>();
+    private Map<String, IRType> var_types = new HashMap<>();
+    private IRBuilder builder;
+
+    public SSAForm(IRFunction function) {
+        this.function = function;
+        this.cfg = new IRcfg(function);
+        this.builder = new IRBuilder(function);
+        for (IRVariableOperand variable : function.parameters) {
+            addVar(variable);
+        }
+        for (IRVariableOperand variable : function.variables) {
+            addVar(variable);
+        }
+        for (int i = 0; i < this.cfg.blocks.size(); i++) {
+            this.phis.add(new ArrayList<>());
+            this.code.add(new ArrayList<>());
+        }
+        if (this.cfg.blocks.isEmpty()) {
+            return;
+        }
+        this.dom = new DominatorTree(this.cfg);
+        computeLiveness();
+        placePhis();
+        rename();
+    }
+
+    private void addVar(IRVariableOperand variable) {
+        if (variable.type instanceof IRArrayType || this.varIndex.containsKey(variable.getName())) {
+            return;
+        }
+        this.varIndex.put(variable.getName(), this.vars.size());
+        this.vars.add(variable.getName());
+        this.var_types.put(variable.getName(), variable.type);
+    }
+
+    // does this instruc (re)define the scalar in operands[0]
+    public static boolean isScalarDef(IRInstruction instruction) {
+        switch (instruction.opCode) {
+            case ADD, SUB, MULT, DIV, AND, OR, CALLR, ARRAY_LOAD -> {
+                return true;
+            }
+            case ASSIGN -> {
+                return instruction.operands.length == 2;
+            }
+            default -> {
+                return false;
+            }
+        }
+    }
+
+    // is operands[i] a use of a scalar variable
+    public static boolean isScalarUse(IRInstruction instruction, int i) {
+        if (i == 0 && isScalarDef(instruction)) {
+            return false;
+        }
+        IROperand operand = instruction.operands[i];
+        return (operand instanceof IRVariableOperand) && !(((IRVariableOperand) operand).type instanceof IRArrayType);
+    }
+
+    // value of a (renamed) operand, null for constants, arrays, labels and functions
+    public Value valueOf(IROperand operand) {
+        if (!(operand instanceof IRVariableOperand)) {
+            return null;
+        }
+        return this.valueByName.get(((IRVariableOperand) operand).getName());
+    }
+
+    public boolean isReachable(IRBlock block) {
+        return this.dom != null && this.dom.isReachable(block.index);
+    }
+
+    // the int constant var holds on every way into block header from outside loop (block indexes), null if there is none
+        //the function entry counts as a way in, so a loop in the entry block or a path on which var is never set is covered
+    public Integer constantOnEntry(int header, String var, IRBitVector loop) {
+        IRBlock block = this.cfg.blocks.get(header);
+        if (!isReachable(block)) {
+            return null;
+        }
+        for (Phi phi : this.phis.get(header)) {
+            if (!phi.target.var.equals(var)) {
+                continue;
+            }
+            Integer result = null;
+            for (int j = 0; j < phi.args.length; j++) {
+                if (phi.args[j] == null || (j < block.predecessors.size() && loop.get(block.predecessors.get(j).index))) {
+                    continue; // from a block that is never reached, or around the loop
+                }
+                Integer constant = intConstant(phi.args[j], new HashSet<>());
+                if (constant == null || (result != null && !result.equals(constant))) {
+                    return null;
+                }
+                result = constant;
+            }
+            return result;
+        }
+        return null; // no phi: var is not live into the header, or nothing in the loop sets it
+    }
+
+    // the int constant a value always is, null if it may be anything else
+        //an entry value is 0 for a local (locals are zeroed on every call) and unknown for a param,
+        //a phi is constant if the args from every reachable predecessor are the same constant
+    private Integer intConstant(Value value, Set<Value> visiting) {
+        if (value == null || value.type != IRIntType.get() || !visiting.add(value)) {
+            return null;
+        }
+        if (value.isEntryValue()) {
+            for (IRVariableOperand param : this.function.parameters) {
+                if (param.getName().equals(value.var)) {
+                    return null;
+                }
+            }
+            return 0;
+        }
+        if (value.def != null) {
+            IRInstruction def = value.def;
+            if (def.opCode == IRInstruction.OpCode.ASSIGN && def.operands[1] instanceof IRConstantOperand) {
+                return Integer.parseInt(((IRConstantOperand) def.operands[1]).getValueString());
+            }
+            return null;
+        }
+        Integer result = null;
+        for (Value arg : value.phi.args) {
+            if (arg == null) { // from a block that is never reached
+                continue;
+            }
+            Integer constant = intConstant(arg, visiting);
+            if (constant == null || (result != null && !result.equals(constant))) {
+                return null;
+            }
+            result = constant;
+        }
+        return result;
+    }
+
+    // Backward liveness of the scalars at block granularity (only used to prune phis)
+    private void computeLiveness() {
+        Liveness liveness = new Liveness(this.function);
+        liveness.solve(this.cfg);
+        for (IRBlock block : this.cfg.blocks) {
+            this.liveIn.add(liveness.in(block));
+        }
+    }
+
+    private void placePhis() {
+        int num_blocks = this.cfg.blocks.size();
+        List<List<Integer>> def_blocks = new ArrayList<>();
+        for (int v = 0; v < this.vars.size(); v++) {
+            def_blocks.add(new ArrayList<>());
+        }
+        for (IRBlock block : this.cfg.blocks) {
+            if (!isReachable(block)) {
+                continue;
+            }
+            for (IRNode node : block.nodes) {
+                if (isScalarDef(node.instruction)) {
+                    List<Integer> blocks = def_blocks.get(this.varIndex.get(node.defined_var));
+                    if (blocks.isEmpty() || blocks.get(blocks.size() - 1) != block.index) {
+                        blocks.add(block.index);
+                    }
+                }
+            }
+        }
+
+        // iterated dominance frontier of the def blocks, markers are var index + 1 so no clearing is needed between vars
+        int[] has_phi = new int[num_blocks];
+        int[] queued = new int[num_blocks];
+        int[] worklist = new int[num_blocks];
+        for (int v = 0; v < this.vars.size(); v++) {
+            int top = 0;
+            for (int b : def_blocks.get(v)) {
+                queued[b] = v + 1;
+                worklist[top++] = b;
+            }
+            while (top > 0) {
+                int x = worklist[--top];
+                for (int y : this.dom.frontier.get(x)) {
+                    if (has_phi[y] == v + 1) {
+                        continue;
+                    }
+                    has_phi[y] = v + 1;
+                    if (this.liveIn.get(y).get(v)) { // pruned: a phi nobody can read is never inserted
+                        IRBlock block = this.cfg.blocks.get(y);
+                        Phi phi = new Phi();
+                        phi.block = block;
+                        phi.target = newValue(this.vars.get(v), false);
+                        phi.target.phi = phi;
+                        phi.target.block = block;
+                        phi.args = new Value[block.predecessors.size() + (y == 0 ? 1 : 0)];
+                        this.phis.get(y).add(phi);
+                    }
+                    if (queued[y] != v + 1) {
+                        queued[y] = v + 1;
+                        worklist[top++] = y;
+                    }
+                }
+            }
+        }
+    }
+
+    private Value newValue(String var, boolean entry) {
+        Value value = new Value();
+        value.id = this.values.size();
+        value.var = var;
+        value.type = this.var_types.get(var);
+        value.name = entry ? var : this.builder.newName(var);
+        this.values.add(value);
+        this.valueByName.put(value.name, value);
+        return value;
+    }
+
+    private void rename() {
+        int num_vars = this.vars.size();
+        // one stack of values per variable, the bottom is the entry value (the variable itself)
+        Value[][] stacks = new Value[num_vars][];
+        int[] heights = new int[num_vars];
+        for (int v = 0; v < num_vars; v++) {
+            stacks[v] = new Value[4];
+            Value entry = newValue(this.vars.get(v), true);
+            entry.block = this.cfg.blocks.get(0);
+            stacks[v][heights[v]++] = entry;
+        }
+        for (Phi phi : this.phis.get(0)) { // the function entry edge of the entry block
+            int v = this.varIndex.get(phi.target.var);
+            phi.args[phi.args.length - 1] = stacks[v][0];
+        }
+
+        // iterative walk of the dominator tree, pushed[] remembers which vars a block pushed so they can be popped on the way out
+        List<List<Integer>> pushed = new ArrayList<>();
+        for (int i = 0; i < this.cfg.blocks.size(); i++) {
+            pushed.add(null);
+        }
+        int[] stack = new int[this.cfg.blocks.size()];
+        int[] next_child = new int[this.cfg.blocks.size()];
+        int top = 0;
+        stack[top++] = 0;
+        boolean entering = true;
+        while (top > 0) {
+            int b = stack[top - 1];
+            if (entering) {
+                pushed.set(b, renameBlock(this.cfg.blocks.get(b), stacks, heights));
+            }
+            List<Integer> kids = this.dom.children.get(b);
+            if (next_child[b] < kids.size()) {
+                stack[top++] = kids.get(next_child[b]++);
+                entering = true;
+            } else {
+                for (int v : pushed.get(b)) {
+                    heights[v]--;
+                }
+                top--;
+                entering = false;
+            }
+        }
+
+        // def-use chains
+        for (List<IRInstruction> block_code : this.code) {
+            for (IRInstruction instruction : block_code) {
+                for (int i = 0; i < instruction.operands.length; i++) {
+                    if (isScalarUse(instruction, i)) {
+                        valueOf(instruction.operands[i]).uses.add(instruction);
+                    }
+                }
+            }
+        }
+        for (List<Phi> block_phis : this.phis) {
+            for (Phi phi : block_phis) {
+                for (Value arg : phi.args) {
+                    if (arg != null) { // null: comes in from a block that is never reached
+                        arg.uses.add(phi);
+                    }
+                }
+            }
+        }
+    }
+
+    private List<Integer> renameBlock(IRBlock block, Value[][] stacks, int[] heights) {
+        List<Integer> pushed = new ArrayList<>();
+        for (Phi phi : this.phis.get(block.index)) {
+            int v = this.varIndex.get(phi.target.var);
+            push(stacks, heights, v, phi.target);
+            pushed.add(v);
+        }
+        List<IRInstruction> block_code = this.code.get(block.index);
+        for (IRNode node : block.nodes) {
+            IRInstruction instruction = node.instruction;
+            IRInstruction renamed = new IRInstruction(instruction.opCode, null, instruction.irLineNumber);
+            renamed.operands = new IROperand[instruction.operands.length];
+            for (int i = 0; i < instruction.operands.length; i++) {
+                if (isScalarUse(instruction, i)) {
+                    int v = this.varIndex.get(((IRVariableOperand) instruction.operands[i]).getName());
+                    Value value = stacks[v][heights[v] - 1];
+                    renamed.operands[i] = new IRVariableOperand(value.type, value.name, renamed);
+                } else if (i > 0 || !isScalarDef(instruction)) {
+                    renamed.operands[i] = IRBuilder.copyOperand(instruction.operands[i], renamed);
+                }
+            }
+            if (isScalarDef(instruction)) {
+                int v = this.varIndex.get(node.defined_var);
+                Value value = newValue(node.defined_var, false);
+                value.def = renamed;
+                value.block = block;
+                renamed.operands[0] = new IRVariableOperand(value.type, value.name, renamed);
+                push(stacks, heights, v, value);
+                pushed.add(v);
+                this.defOf.put(renamed, value);
+            }
+            this.original.put(renamed, instruction);
+            block_code.add(renamed);
+        }
+        for (IRBlock succ : block.successors) {
+            int j = succ.predecessors.indexOf(block);
+            for (Phi phi : this.phis.get(succ.index)) {
+                int v = this.varIndex.get(phi.target.var);
+                phi.args[j] = stacks[v][heights[v] - 1];
+            }
+        }
+        return pushed;
+    }
+
+    private static void push(Value[][] stacks, int[] heights, int v, Value value) {
+        if (heights[v] == stacks[v].length) {
+            stacks[v] = Arrays.copyOf(stacks[v], heights[v] * 2);
+        }
+        stacks[v][heights[v]++] = value;
+    }
+}
@@ -0,0 +1,137 @@
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.datatype.IRArrayType;
+import ir.datatype.IRIntType;
+import ir.operand.IRConstantOperand;
+import ir.operand.IROperand;
+import ir.operand.IRVariableOperand;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class ScalarReplacement {
+    //Scalar replacement of small local arrays: an array of at most maxSize elements that is never passed to a call
+        //(ArrayAliasAnalysis: then nothing but this function ever sees it) and only accessed at constant indexes in range
+        //becomes one scalar per element that is used (A[2] -> A_2)
+        //array_load x, A, c -> assign x, A_c    array_store v, A, c -> assign A_c, v    assign A, n, v -> n scalar assigns
+    //The interpreter zero-initializes the new scalars on every call just like it did the array, so nothing has to be added
+    //The array leaves IRFunction.variables (the int-list/float-list IRPrinter prints), so no call allocates/zero-fills it anymore,
+        //and every access loses its bounds check; the scalars then go through constant/copy propagation and DCE like any other
+    //Local arrays that are not used at all are dropped from the declarations too
+
+    public static int maxSize = 16;
+
+    // returns how many arrays were replaced
+    public static int run(IRFunction function) {
+        ArrayAliasAnalysis aliases = new ArrayAliasAnalysis(function);
+        Set<String> candidates = new HashSet<>();
+        for (String array : aliases.locals) {
+            if (!aliases.passed.contains(array)) {
+                candidates.add(array);
+            }
+        }
+        for (IRVariableOperand variable : function.variables) {
+            if (candidates.contains(variable.getName()) && ((IRArrayType) variable.type).getSize() > maxSize) {
+                candidates.remove(variable.getName());
+            }
+        }
+        for (IRInstruction instruction : function.instructions) {
+            for (int i = 0; i < instruction.operands.length; i++) {
+                IROperand operand = instruction.operands[i];
+                if (candidates.contains(operand.toString()) && operand instanceof IRVariableOperand && !constantAccess(instruction, i)) {
+                    candidates.remove(operand.toString());
+                }
+            }
+        }
+        if (candidates.isEmpty()) {
+            return 0;
+        }
+
+        IRBuilder builder = new IRBuilder(function);
+        Map<String, IRVariableOperand> arrays = new HashMap<>();
+        List<IRVariableOperand> variables = new ArrayList<>();
+        for (IRVariableOperand variable : function.variables) {
+            if (candidates.contains(variable.getName())) {
+                arrays.put(variable.getName(), variable);
+            } else {
+                variables.add(variable);
+            }
+        }
+        function.variables = variables;
+        Map<String, IRVariableOperand> elements = new HashMap<>(); // "A[c]" -> its scalar
+
+        List<IRInstruction> result = new ArrayList<>();
+        for (IRInstruction instruction : function.instructions) {
+            switch (instruction.opCode) {
+                case ARRAY_LOAD -> {
+                    IRVariableOperand array = arrays.get(instruction.operands[1].toString());
+                    if (array != null) {
+                        IRVariableOperand element = element(builder, elements, array, constant(instruction.operands[2]));
+                        result.add(builder.assign((IRVariableOperand) instruction.operands[0], element));
+                        continue;
+                    }
+                }
+                case ARRAY_STORE -> {
+                    IRVariableOperand array = arrays.get(instruction.operands[1].toString());
+                    if (array != null) {
+                        IRVariableOperand element = element(builder, elements, array, constant(instruction.operands[2]));
+                        result.add(builder.assign(element, instruction.operands[0]));
+                        continue;
+                    }
+                }
+                case ASSIGN -> {
+                    IRVariableOperand array = (instruction.operands.length == 3) ? arrays.get(instruction.operands[0].toString()) : null;
+                    if (array != null) {
+                        for (int k = 0; k < constant(instruction.operands[1]); k++) {
+                            result.add(builder.assign(element(builder, elements, array, k), instruction.operands[2]));
+                        }
+                        continue;
+                    }
+                }
+                default -> {
+                    break;
+                }
+            }
+            result.add(instruction);
+        }
+        function.instructions = result;
+        return candidates.size();
+    }
+
+    private static int constant(IROperand operand) {
+        return Integer.parseInt(((IRConstantOperand) operand).getValueString());
+    }
+
+    private static boolean isConstantIn(IROperand operand, int low, int high) {
+        if (!(operand instanceof IRConstantOperand) || ((IRConstantOperand) operand).type != IRIntType.get()) {
+            return false;
+        }
+        int value = constant(operand);
+        return value >= low && value <= high;
+    }
+
+    // is operands[i] (an array) accessed at a constant index in range (or filled for a constant count)
+    private static boolean constantAccess(IRInstruction instruction, int i) {
+        int size = ((IRArrayType) ((IRVariableOperand) instruction.operands[i]).type).getSize();
+        switch (instruction.opCode) {
+            case ARRAY_LOAD, ARRAY_STORE -> {
+                return i == 1 && isConstantIn(instruction.operands[2], 0, size - 1);
+            }
+            case ASSIGN -> {
+                return i == 0 && instruction.operands.length == 3 && isConstantIn(instruction.operands[1], 0, size);
+            }
+            default -> {
+                return false;
+            }
+        }
+    }
+
+    private static IRVariableOperand element(IRBuilder builder, Map<String, IRVariableOperand> elements, IRVariableOperand array, int index) {
+        return elements.computeIfAbsent(array.getName() + "[" + index + "]",
+                key -> builder.newVariable(array.getName() + "_" + index, ((IRArrayType) array.type).getElementType()));
+    }
+}
@@ -0,0 +1,60 @@
+import java.util.HashMap;
+import java.util.Map;
+
+public abstract class SparseAnalysis<V> extends DataflowAnalysis<SparseAnalysis.Fact<V>> {
+    //Dataflow problem whose facts are sparse maps (key -> value), for "must" problems where only a few keys hold at a time
+        //meet keeps a key only if both sides map it to an equal value (intersection), top is "everything" (not visited yet)
+    //Subclasses only write transfer(), working on result.map (result starts as a copy of the input)
+
+    public static class Fact<V> {
+        public boolean top;
+        public Map<String, V> map = new HashMap<>();
+
+        // For testing purposes
+        public String toString() {
+            return this.top ? "TOP" : this.map.toString();
+        }
+    }
+
+    protected Fact<V> newFact() {
+        Fact<V> fact = new Fact<>();
+        fact.top = true;
+        return fact;
+    }
+
+    // nothing is known at the boundary
+    protected Fact<V> boundaryFact() {
+        return new Fact<>();
+    }
+
+    protected void meetInto(Fact<V> target, Fact<V> other) {
+        if (other.top) {
+            return;
+        }
+        if (target.top) {
+            copyInto(target, other);
+            return;
+        }
+        target.map.entrySet().removeIf(entry -> !entry.getValue().equals(other.map.get(entry.getKey())));
+    }
+
+    protected void copyInto(Fact<V> target, Fact<V> source) {
+        target.top = source.top;
+        target.map.clear();
+        target.map.putAll(source.map);
+    }
+
+    protected boolean sameFact(Fact<V> a, Fact<V> b) {
+        return a.top == b.top && a.map.equals(b.map);
+    }
+
+    protected void transfer(IRBlock block, Fact<V> input, Fact<V> result) {
+        copyInto(result, input);
+        if (!result.top) {
+            transfer(block, result.map);
+        }
+    }
+
+    // update the map in place from the top of the block to the bottom (or bottom to top when backward)
+    protected abstract void transfer(IRBlock block, Map<String, V> facts);
+}
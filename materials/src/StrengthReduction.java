@@ -0,0 +1,343 @@
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.datatype.IRIntType;
+import ir.operand.IRConstantOperand;
+import ir.operand.IRLabelOperand;
+import ir.operand.IROperand;
+import ir.operand.IRVariableOperand;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class StrengthReduction {
+    //Induction variable strength reduction + linear function test replacement on the loops of LoopForest
+    //Basic induction variable: an int i whose only def in the loop is i = i + c / i = c + i / i = i - c (c constant)
+    //Derived: j = i * k (k constant or a variable with no def in the loop), j's only def in the loop
+        //j is kept equal to i * k instead: j = i * k in the preheader and j = j + c * k right after i's increment, the mult goes
+        //this is only exact if nobody reads the old j while it is stale: j not live into the header (no value of j crosses
+        //an iteration) and not live right after the increment (nothing between the increment and the mult reads j)
+    //LFTR: if i is then only used by its increment and one ordered exit test "br i, n" (one side leaves the loop,
+        //the other stays, and the test block dominates the latches),
+        //the test becomes "br j, n * k" and i is left for DCE. Only done when k > 0 and s, n, c are constants with i moving
+        //towards n, so i stays in [min(s, n) - |c|, max(s, n) + |c|] and i * k cannot overflow
+        //(s is the constant i starts at on every way into the loop, from SSA, a param or an unset local count as ways in too)
+    //One loop per round (innermost first), then everything is rebuilt
+
+    // returns how many mults were reduced plus how many tests were replaced
+    public static int run(IRFunction function) {
+        int total = 0;
+        int changed = reduceOne(function);
+        while (changed > 0) {
+            total += changed;
+            changed = reduceOne(function);
+        }
+        return total;
+    }
+
+    private static class Reduction {
+        IRNode mult;
+        IRNode increment;
+        IROperand factor; // k
+        int step_sign; // +1 for i = i + c, -1 for i = i - c
+        int step; // c
+    }
+
+    private IRcfg cfg;
+    private DominatorTree dom;
+    private Liveness liveness;
+    private LoopForest.Loop loop;
+    private SSAForm ssa; // same blocks as cfg
+
+    private static int reduceOne(IRFunction function) {
+        if (function.instructions.isEmpty()) {
+            return 0;
+        }
+        StrengthReduction pass = new StrengthReduction();
+        pass.cfg = new IRcfg(function);
+        pass.dom = new DominatorTree(pass.cfg);
+        LoopForest forest = new LoopForest(pass.cfg, pass.dom);
+        if (forest.loops.isEmpty()) {
+            return 0;
+        }
+        new ReachingDefinitions().solve(pass.cfg);
+        pass.cfg.buildChains();
+        pass.liveness = new Liveness(function);
+        pass.liveness.solve(pass.cfg);
+        pass.ssa = new SSAForm(function);
+        for (LoopForest.Loop loop : forest.loops) {
+            pass.loop = loop;
+            int changed = pass.reduce(function, forest);
+            if (changed > 0) {
+                return changed;
+            }
+        }
+        return 0;
+    }
+
+    private int defsInLoop(String var) {
+        int count = 0;
+        IRBitVector defs = this.cfg.defsOfVar.get(var);
+        if (defs == null) {
+            return 0;
+        }
+        for (int d = defs.nextSetBit(0); d >= 0; d = defs.nextSetBit(d + 1)) {
+            if (this.loop.contains(this.cfg.definitions.get(d).block)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean isIntConstant(IROperand operand) {
+        return operand instanceof IRConstantOperand && ((IRConstantOperand) operand).type == IRIntType.get();
+    }
+
+    private static int intValue(IROperand operand) {
+        return Integer.parseInt(((IRConstantOperand) operand).getValueString());
+    }
+
+    // the increment of basic induction variable var in the loop, null if var is not one
+    private Reduction increment(String var) {
+        if (defsInLoop(var) != 1) {
+            return null;
+        }
+        IRBitVector defs = this.cfg.defsOfVar.get(var);
+        for (int d = defs.nextSetBit(0); d >= 0; d = defs.nextSetBit(d + 1)) {
+            IRNode node = this.cfg.definitions.get(d);
+            if (!this.loop.contains(node.block)) {
+                continue;
+            }
+            IRInstruction instruction = node.instruction;
+            if ((instruction.opCode != IRInstruction.OpCode.ADD && instruction.opCode != IRInstruction.OpCode.SUB)
+                    || ((IRVariableOperand) instruction.operands[0]).type != IRIntType.get()) {
+                return null;
+            }
+            IROperand y = instruction.operands[1];
+            IROperand z = instruction.operands[2];
+            Reduction reduction = new Reduction();
+            reduction.increment = node;
+            if (instruction.opCode == IRInstruction.OpCode.ADD && y.toString().equals(var) && isIntConstant(z)) {
+                reduction.step = intValue(z);
+                reduction.step_sign = 1;
+            } else if (instruction.opCode == IRInstruction.OpCode.ADD && z.toString().equals(var) && isIntConstant(y)) {
+                reduction.step = intValue(y);
+                reduction.step_sign = 1;
+            } else if (instruction.opCode == IRInstruction.OpCode.SUB && y.toString().equals(var) && isIntConstant(z)) {
+                reduction.step = intValue(z);
+                reduction.step_sign = -1;
+            } else {
+                return null;
+            }
+            return reduction;
+        }
+        return null;
+    }
+
+    // live variables right after the instruc of node
+    private IRBitVector liveAfter(IRNode node) {
+        IRBitVector live = new IRBitVector(this.liveness.out(node.block));
+        for (int i = node.block.nodes.size() - 1; i >= 0 && node.block.nodes.get(i) != node; i--) {
+            this.liveness.step(node.block.nodes.get(i).instruction, live);
+        }
+        return live;
+    }
+
+    private int reduce(IRFunction function, LoopForest forest) {
+        List<Reduction> reductions = new ArrayList<>();
+        for (IRBlock block : this.loop.body) {
+            for (IRNode node : block.nodes) {
+                IRInstruction instruction = node.instruction;
+                if (instruction.opCode != IRInstruction.OpCode.MULT || ((IRVariableOperand) instruction.operands[0]).type != IRIntType.get()) {
+                    continue;
+                }
+                String j = node.defined_var;
+                for (int side = 1; side <= 2; side++) {
+                    IROperand iv = instruction.operands[side];
+                    IROperand factor = instruction.operands[3 - side];
+                    if (!(iv instanceof IRVariableOperand) || iv.toString().equals(j)) {
+                        continue;
+                    }
+                    if (factor instanceof IRVariableOperand && (defsInLoop(factor.toString()) > 0 || factor.toString().equals(j))) {
+                        continue;
+                    }
+                    Reduction reduction = increment(iv.toString());
+                    if (reduction == null || defsInLoop(j) != 1) {
+                        continue;
+                    }
+                    int x = this.liveness.varIndex.get(j);
+                    if (this.liveness.in(this.loop.header).get(x) || liveAfter(reduction.increment).get(x)) {
+                        continue;
+                    }
+                    reduction.mult = node;
+                    reduction.factor = factor;
+                    reductions.add(reduction);
+                    break;
+                }
+            }
+        }
+        if (reductions.isEmpty()) {
+            return 0;
+        }
+
+        IRBuilder builder = new IRBuilder(function);
+        List<IRInstruction> preheader = new ArrayList<>();
+        Map<IRInstruction, List<IRInstruction>> after = new IdentityHashMap<>(); // increment -> updates to put after it
+        Map<IRInstruction, IRInstruction> replaced_test = new IdentityHashMap<>();
+        List<IRInstruction> removed = new ArrayList<>();
+        int changed = 0;
+        for (Reduction reduction : reductions) {
+            IRInstruction mult = reduction.mult.instruction;
+            IRVariableOperand j = (IRVariableOperand) mult.operands[0];
+            preheader.add(mult);
+            removed.add(mult);
+            IRInstruction update;
+            if (reduction.factor instanceof IRConstantOperand) {
+                update = builder.newInstruction(IRInstruction.OpCode.ADD);
+                int step = reduction.step_sign * reduction.step * intValue(reduction.factor);
+                update.operands = new IROperand[]{IRBuilder.variable(j, update), IRBuilder.variable(j, update),
+                        new IRConstantOperand(IRIntType.get(), Integer.toString(step), update)};
+            } else {
+                IRVariableOperand step = builder.newVariable("sr_step", IRIntType.get());
+                IRInstruction scale = builder.newInstruction(IRInstruction.OpCode.MULT);
+                scale.operands = new IROperand[]{IRBuilder.variable(step, scale), IRBuilder.copyOperand(reduction.factor, scale),
+                        new IRConstantOperand(IRIntType.get(), Integer.toString(reduction.step), scale)};
+                preheader.add(scale);
+                update = builder.newInstruction(reduction.step_sign > 0 ? IRInstruction.OpCode.ADD : IRInstruction.OpCode.SUB);
+                update.operands = new IROperand[]{IRBuilder.variable(j, update), IRBuilder.variable(j, update), IRBuilder.variable(step, update)};
+            }
+            after.computeIfAbsent(reduction.increment.instruction, k -> new ArrayList<>()).add(update);
+            changed++;
+
+            IRInstruction test = findTest(reduction);
+            if (test != null && !replaced_test.containsKey(test)) {
+                IRInstruction replacement = replaceTest(reduction, reductions, builder);
+                if (replacement != null) {
+                    replaced_test.put(test, replacement);
+                    changed++;
+                }
+            }
+        }
+
+        List<IRInstruction> result = new ArrayList<>();
+        for (IRInstruction instruction : function.instructions) {
+            if (removed.contains(instruction)) {
+                continue;
+            }
+            result.add(replaced_test.getOrDefault(instruction, instruction));
+            if (after.containsKey(instruction)) {
+                result.addAll(after.get(instruction));
+            }
+        }
+        function.instructions = result;
+        forest.insertPreheader(function, builder, this.loop, preheader);
+        return changed;
+    }
+
+    // the only use of i in the loop besides its increment and the reduced mults, if it is a branch with i in operands[1]
+    private IRInstruction findTest(Reduction reduction) {
+        String i = reduction.increment.defined_var;
+        IRInstruction test = null;
+        for (IRBlock block : this.loop.body) {
+            for (IRNode node : block.nodes) {
+                if (node == reduction.increment || !node.used_vars.contains(i)) {
+                    continue;
+                }
+                if (node.instruction.opCode == IRInstruction.OpCode.MULT) {
+                    continue; // checked by the caller
+                }
+                if (test != null) {
+                    return null;
+                }
+                test = node.instruction;
+            }
+        }
+        return test;
+    }
+
+    // the new exit test against j for LFTR, null if it cannot be done
+    private IRInstruction replaceTest(Reduction reduction, List<Reduction> reductions, IRBuilder builder) {
+        String i = reduction.increment.defined_var;
+        if (!isIntConstant(reduction.factor) || intValue(reduction.factor) <= 0) {
+            return null;
+        }
+        // every mult of i in the loop must be going away
+        for (IRBlock block : this.loop.body) {
+            for (IRNode node : block.nodes) {
+                if (node.instruction.opCode == IRInstruction.OpCode.MULT && node.used_vars.contains(i)) {
+                    boolean reduced = false;
+                    for (Reduction other : reductions) {
+                        reduced |= other.mult == node;
+                    }
+                    if (!reduced) {
+                        return null;
+                    }
+                }
+            }
+        }
+        IRInstruction test = findTest(reduction);
+        if (test == null || !test.operands[1].toString().equals(i) || !isIntConstant(test.operands[2])) {
+            return null;
+        }
+        boolean less; // which way i has to move for the loop to keep going
+        IRBlock test_block = null;
+        for (IRBlock block : this.loop.body) {
+            if (block.last().instruction == test) {
+                test_block = block;
+            }
+        }
+        if (test_block == null) {
+            return null;
+        }
+        // the test must be an exit: one side stays in the loop, the other leaves it (only then is i bounded by n)
+        boolean taken_stays = this.loop.contains(this.cfg.labelToBlock.get(((IRLabelOperand) test.operands[0]).getName()));
+        IRBlock fall = (test_block.index + 1 < this.cfg.blocks.size()) ? this.cfg.blocks.get(test_block.index + 1) : null;
+        boolean fall_stays = fall != null && this.loop.contains(fall);
+        if (taken_stays == fall_stays) {
+            return null;
+        }
+        switch (test.opCode) {
+            case BRLT -> less = taken_stays; // stays while i < n
+            case BRGT -> less = !taken_stays; // stays while i <= n
+            case BRGEQ -> less = !taken_stays; // stays while i < n
+            default -> {
+                return null;
+            }
+        }
+        if ((reduction.step_sign * reduction.step > 0) != less || reduction.step == 0) {
+            return null;
+        }
+        for (IRBlock latch : this.loop.latches) {
+            if (!this.dom.dominates(test_block.index, latch.index)) {
+                return null;
+            }
+        }
+        // i must not be needed after the loop
+        int x = this.liveness.varIndex.get(i);
+        for (IRBlock exit : this.loop.exits()) {
+            for (IRBlock succ : exit.successors) {
+                if (!this.loop.contains(succ) && this.liveness.in(succ).get(x)) {
+                    return null;
+                }
+            }
+        }
+        // the constant i starts at on every way into the header (SSA phi of i, the function entry counts as one)
+        Integer start = this.ssa.constantOnEntry(this.loop.header.index, i, this.loop.blocks);
+        if (start == null) {
+            return null;
+        }
+        long n = intValue(test.operands[2]);
+        long k = intValue(reduction.factor);
+        long bound = Math.max(Math.abs((long) start), Math.abs(n)) + Math.abs((long) reduction.step);
+        if (bound * k > Integer.MAX_VALUE) {
+            return null;
+        }
+
+        IRInstruction replacement = builder.newInstruction(test.opCode);
+        replacement.operands = new IROperand[]{IRBuilder.copyOperand(test.operands[0], replacement),
+                IRBuilder.variable((IRVariableOperand) reduction.mult.instruction.operands[0], replacement),
+                new IRConstantOperand(IRIntType.get(), Long.toString(n * k), replacement)};
+        return replacement;
+    }
+}
@@ -0,0 +1,188 @@
+import ir.IRFunction;
+import ir.IRInstruction;
+import ir.datatype.IRArrayType;
+import ir.operand.IRFunctionOperand;
+import ir.operand.IRLabelOperand;
+import ir.operand.IROperand;
+import ir.operand.IRVariableOperand;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class TailRecursionElimination {
+    //Tail calls of a function to itself become a jump back to its entry
+        //"call f, .." with nothing but labels after it (directly or through a goto) in a void function
+        //"callr x, f, .." directly followed by "return x"
+    //The call is replaced by
+        //the params getting their new values (params that are read by a later argument are saved in a temp first)
+        //the locals the interpreter would zero again: scalars that are live at the entry, and every local array
+        //goto entry (the first label of the function, a new one if it does not start with one)
+    //Array params can only be passed on unchanged (arrays cannot be assigned), other calls are left alone
+    //The function then no longer recurses there, so the interpreter's stack stays bounded and Inliner may pick it up
+
+    // returns how many tail calls became jumps
+    public static int run(IRFunction function) {
+        List<IRInstruction> instructions = function.instructions;
+        Map<IRInstruction, IRInstruction> tails = new IdentityHashMap<>(); // tail call -> the return it makes dead (or null)
+        for (int k = 0; k < instructions.size(); k++) {
+            IRInstruction instruction = instructions.get(k);
+            if (instruction.opCode == IRInstruction.OpCode.CALL && function.returnType == null
+                    && ((IRFunctionOperand) instruction.operands[0]).getName().equals(function.name)
+                    && passesArguments(function, instruction, 1) && endsAfter(instructions, k + 1)) {
+                tails.put(instruction, null);
+            } else if (instruction.opCode == IRInstruction.OpCode.CALLR && k + 1 < instructions.size()
+                    && ((IRFunctionOperand) instruction.operands[1]).getName().equals(function.name)
+                    && passesArguments(function, instruction, 2)) {
+                IRInstruction next = instructions.get(k + 1);
+                if (next.opCode == IRInstruction.OpCode.RETURN && next.operands[0].toString().equals(instruction.operands[0].toString())) {
+                    tails.put(instruction, next);
+                }
+            }
+        }
+        if (tails.isEmpty()) {
+            return 0;
+        }
+
+        // what a new activation would have zeroed, as seen from the original code
+        List<IRVariableOperand> reset = IRBuilder.zeroedLocals(function);
+
+        IRBuilder builder = new IRBuilder(function);
+        IRInstruction entry_label = null;
+        String entry;
+        if (!instructions.isEmpty() && instructions.get(0).opCode == IRInstruction.OpCode.LABEL) {
+            entry = ((IRLabelOperand) instructions.get(0).operands[0]).getName();
+        } else {
+            entry_label = builder.newLabel(function.name + "_entry");
+            entry = ((IRLabelOperand) entry_label.operands[0]).getName();
+        }
+
+        Map<String, IRVariableOperand> temps = new HashMap<>(); // param -> the temp that saves it
+        List<IRInstruction> result = new ArrayList<>();
+        if (entry_label != null) {
+            result.add(entry_label);
+        }
+        Set<IRInstruction> dead = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (IRInstruction instruction : instructions) {
+            if (dead.contains(instruction)) {
+                continue;
+            }
+            if (!tails.containsKey(instruction)) {
+                result.add(instruction);
+                continue;
+            }
+            if (tails.get(instruction) != null) {
+                dead.add(tails.get(instruction));
+            }
+            result.addAll(jump(function, builder, instruction, entry, temps, reset));
+        }
+        function.instructions = result;
+        return tails.size();
+    }
+
+    // only labels until the end of the function from position k on (following a goto once)
+    private static boolean endsAfter(List<IRInstruction> instructions, int k) {
+        while (k < instructions.size() && instructions.get(k).opCode == IRInstruction.OpCode.LABEL) {
+            k++;
+        }
+        if (k == instructions.size()) {
+            return true;
+        }
+        if (instructions.get(k).opCode != IRInstruction.OpCode.GOTO) {
+            return false;
+        }
+        String target = ((IRLabelOperand) instructions.get(k).operands[0]).getName();
+        for (int j = 0; j < instructions.size(); j++) {
+            IRInstruction instruction = instructions.get(j);
+            if (instruction.opCode == IRInstruction.OpCode.LABEL && ((IRLabelOperand) instruction.operands[0]).getName().equals(target)) {
+                for (j++; j < instructions.size(); j++) {
+                    if (instructions.get(j).opCode != IRInstruction.OpCode.LABEL) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // every argument fits its param, array params get passed on unchanged
+    private static boolean passesArguments(IRFunction function, IRInstruction call, int first) {
+        if (call.operands.length - first != function.parameters.size()) {
+            return false;
+        }
+        for (int k = 0; k < function.parameters.size(); k++) {
+            IRVariableOperand param = function.parameters.get(k);
+            IROperand actual = call.operands[first + k];
+            if (IRBuilder.typeOf(actual) != param.type) {
+                return false;
+            }
+            if (param.type instanceof IRArrayType && !actual.toString().equals(param.getName())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<IRInstruction> jump(IRFunction function, IRBuilder builder, IRInstruction call, String entry,
+                                            Map<String, IRVariableOperand> temps, List<IRVariableOperand> reset) {
+        int first = (call.opCode == IRInstruction.OpCode.CALLR) ? 2 : 1;
+        List<IRVariableOperand> changed = new ArrayList<>();
+        Set<String> changed_names = new HashSet<>();
+        for (int k = 0; k < function.parameters.size(); k++) {
+            IRVariableOperand param = function.parameters.get(k);
+            IROperand actual = call.operands[first + k];
+            if (!(actual instanceof IRVariableOperand) || !actual.toString().equals(param.getName())) {
+                changed.add(param);
+                changed_names.add(param.getName());
+            }
+        }
+
+        // parallel assignment: an argument that reads a changed param reads a saved copy of it
+        List<IRInstruction> saves = new ArrayList<>();
+        List<IRInstruction> assigns = new ArrayList<>();
+        for (int k = 0; k < function.parameters.size(); k++) {
+            IRVariableOperand param = function.parameters.get(k);
+            if (!changed.contains(param)) {
+                continue;
+            }
+            IROperand actual = call.operands[first + k];
+            if (actual instanceof IRVariableOperand && changed_names.contains(actual.toString())
+                    && changed.indexOf(param) > indexOfName(changed, actual.toString())) {
+                IRVariableOperand source = (IRVariableOperand) actual;
+                IRVariableOperand temp = temps.get(source.getName());
+                if (temp == null) {
+                    temp = builder.newVariable(source.getName() + "_tail", source.type);
+                    temps.put(source.getName(), temp);
+                }
+                saves.add(builder.assign(temp, source));
+                actual = temp;
+            }
+            assigns.add(builder.assign(param, actual));
+        }
+
+        List<IRInstruction> result = new ArrayList<>(saves);
+        result.addAll(assigns);
+        for (IRVariableOperand variable : reset) {
+            result.add(builder.zeroInit(variable));
+        }
+        IRInstruction jump = builder.newInstruction(IRInstruction.OpCode.GOTO);
+        jump.operands = new IROperand[]{new IRLabelOperand(entry, jump)};
+        result.add(jump);
+        return result;
+    }
+
+    private static int indexOfName(List<IRVariableOperand> variables, String name) {
+        for (int k = 0; k < variables.size(); k++) {
+            if (variables.get(k).getName().equals(name)) {
+                return k;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,53 @@
+import java.util.List;
+
+public class WorklistSolver {
+    //Generic worklist solver for dataflow problems over the blocks of an IRcfg
+        //blocks are seeded in reverse postorder (postorder for backward problems) and only the neighbours of a block
+        //whose output changed get put back on the worklist
+    //The pending blocks are kept as a bit vector indexed by position in that order, so every sweep still visits them in order
+
+    public interface BlockVisitor {
+        // recompute the facts of this block from its neighbours, return true if the side its neighbours read changed
+        boolean visit(IRBlock block);
+    }
+
+    public int iterations = 0; // number of sweeps over the order
+    public int visits = 0; // number of times a block was visited
+
+    public void solve(IRcfg cfg, boolean forward, BlockVisitor visitor) {
+        List<IRBlock> order = forward ? cfg.reversePostorder() : cfg.postorder();
+        int[] position = new int[cfg.blocks.size()];
+        for (int i = 0; i < order.size(); i++) {
+            position[order.get(i).index] = i;
+        }
+
+        IRBitVector pending = new IRBitVector(order.size());
+        for (int i = 0; i < order.size(); i++) {
+            pending.set(i);
+        }
+
+        int next = pending.nextSetBit(0);
+        while (next >= 0) {
+            this.iterations++;
+            while (next >= 0) {
+                pending.clear(next);
+                IRBlock block = order.get(next);
+                this.visits++;
+                if (visitor.visit(block)) {
+                    // anything later in the order is picked up in this same sweep, anything earlier in the next one
+                    List<IRBlock> affected = forward ? block.successors : block.predecessors;
+                    for (IRBlock other : affected) {
+                        pending.set(position[other.index]);
+                    }
+                }
+                next = pending.nextSetBit(next + 1);
+            }
+            next = pending.nextSetBit(0);
+        }
+    }
+
+    // For testing purposes
+    public String toString() {
+        return this.iterations + " iterations, " + this.visits + " block visits";
+    }
+}